@@ -1,10 +1,15 @@
 package org.apache.solr.core;
 
 import com.sun.org.apache.xerces.internal.dom.ElementImpl;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Accountables;
+import org.apache.lucene.util.RamUsageEstimator;
 import org.apache.solr.cloud.ZkSolrResourceLoader;
 import org.apache.solr.common.SolrException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -13,8 +18,20 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathConstants;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * This class is a remnant form when the configuration was loaded as part of the initial Solr configuration.
@@ -26,12 +43,23 @@ import java.util.HashMap;
  * @version 2018.07.28
  */
 public class AliasConfig
-        extends Config {
+        extends Config
+        implements Accountable {
 
     private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
     public static final String DEFAULT_CONF_FILE = "query_aliases.xml";
+    // Measured with RamUsageTester on a config of 1000 aliases (5810 nodes) on a 64-bit JVM with compressed oops.
+    // A node of the parsed DOM, which Xerces defers, costs its node object and its slots in the chunked int[] and
+    // Object[] tables the deferred document keeps after the nodes are built: about 89 bytes. A node of the copy
+    // with the properties unsubstituted, which is built eagerly, costs about 60 bytes.
+    private static final long DEFERRED_DOM_NODE_BYTES = 89;
+    private static final long DOM_NODE_BYTES = 60;
     private final String configFilename;
-    private final HashMap<String, HashMap<String, String>> aliases;
+    private final Map<String, AliasDictionary> aliases;
+    private final String[] pseudofields;
+    private final Map<String, Map<String, AliasRoute>> routes = new HashMap<>();
+    private final String configHash;
+    private final long domRamBytesUsed;
 
     /**
      * Creates a default instance from query_aliases.xml.
@@ -84,15 +112,19 @@ public class AliasConfig
 
         super(loader, name, is, "/alias-configs/");
         this.aliases = populateAliases();
+        this.pseudofields = aliases.keySet().toArray(new String[aliases.size()]);
+        this.configHash = computeConfigHash(aliases);
+        this.domRamBytesUsed = domRamBytesUsed(getDocument(), DEFERRED_DOM_NODE_BYTES, dictionaryText(aliases))
+                + domRamBytesUsed(getDocument(), DOM_NODE_BYTES, Collections.emptySet());
         log.info("Loaded Aliases Config: " + name);
         configFilename = name;
     }
 
     public String getConfigFilename() { return configFilename; }
 
-    private HashMap<String, HashMap<String, String>> populateAliases() {
+    private Map<String, AliasDictionary> populateAliases() {
 
-        HashMap<String, HashMap<String, String>> allAliases = new HashMap<>();
+        Map<String, AliasDictionary> allAliases = new HashMap<>();
         NodeList aliasFields = (NodeList) evaluate("alias-config", XPathConstants.NODESET);
         for (int i = 0; i < aliasFields.getLength(); i++) {
             ElementImpl pseudofieldNode = (ElementImpl) aliasFields.item(i);
@@ -104,17 +136,149 @@ public class AliasConfig
                 String alias = configNode.getElementsByTagName("alias").item(0).getTextContent();
                 String query = configNode.getElementsByTagName("query").item(0).getTextContent();
                 aliasMap.put(alias, query);
+                AliasRoute route = new AliasRoute(optionalText(configNode, "shards"),
+                        optionalText(configNode, "route"));
+                if (!route.isEmpty()) {
+                    routes.computeIfAbsent(fieldName, f -> new HashMap<>()).put(alias, route);
+                }
             }
-            allAliases.put(fieldName, aliasMap);
+            AliasDictionary dictionary = new AliasDictionary(aliasMap);
+            log.info("Loaded {} aliases for pseudofield {}, sharing {} clauses", dictionary.size(), fieldName,
+                    dictionary.sharedCount());
+            allAliases.put(fieldName, dictionary);
         }
 
         return allAliases;
     }
 
-    public HashMap<String, HashMap<String, String>> getAliases() {
+    // independent of the order of the definitions, so only a change to the aliases changes the hash
+    private static String computeConfigHash(Map<String, AliasDictionary> aliases) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (String field : new TreeSet<>(aliases.keySet())) {
+            AliasDictionary dictionary = aliases.get(field);
+            digest.update(field.getBytes(StandardCharsets.UTF_8));
+            for (String alias : dictionary.names()) {
+                digest.update((byte) 0);
+                digest.update(alias.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(dictionary.get(alias).getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) 1);
+        }
+        StringBuilder sb = new StringBuilder();
+        byte[] hash = digest.digest();
+        for (int i = 0; i < 8; i++) {
+            sb.append(String.format(Locale.ROOT, "%02x", hash[i]));
+        }
+        return sb.toString();
+    }
+
+    /*
+     * The Config keeps the DOM and a copy of it with the properties unsubstituted, each with its own text, so both
+     * are estimated from the nodes and text of the DOM. The text of the DOM which is also held by the dictionaries,
+     * i.e. the pseudofields and the queries without shared clauses, is the same String instances, so is only
+     * counted once.
+     */
+    private static long domRamBytesUsed(Node node, long nodeBytes, Set<String> counted) {
+        String value = node.getNodeValue();
+        long bytes = nodeBytes + (counted.contains(value) ? 0 : AliasRamUsage.sizeOf(value));
+        NamedNodeMap attributes = node.getAttributes();
+        if (attributes != null) {
+            for (int i = 0; i < attributes.getLength(); i++) {
+                bytes += domRamBytesUsed(attributes.item(i), nodeBytes, counted);
+            }
+        }
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            bytes += domRamBytesUsed(child, nodeBytes, counted);
+        }
+        return bytes;
+    }
+
+    private static Set<String> dictionaryText(Map<String, AliasDictionary> aliases) {
+        Set<String> text = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Map.Entry<String, AliasDictionary> fieldAliases : aliases.entrySet()) {
+            text.add(fieldAliases.getKey());
+            for (String alias : fieldAliases.getValue().names()) {
+                text.add(fieldAliases.getValue().get(alias));
+            }
+        }
+        return text;
+    }
+
+    private static String optionalText(ElementImpl node, String tagName) {
+        NodeList nodes = node.getElementsByTagName(tagName);
+        return nodes.getLength() == 0 ? null : nodes.item(0).getTextContent();
+    }
+
+    /**
+     * @return the routing of the alias in SolrCloud, or null if the alias has no routing
+     */
+    public AliasRoute getRoute(String psField, String alias) {
+        Map<String, AliasRoute> fieldRoutes = routes.get(psField);
+        return fieldRoutes == null ? null : fieldRoutes.get(alias);
+    }
+
+    /**
+     * @return the pseudofields, as an array so they can be checked without allocating; must not be modified
+     */
+    public String[] getPseudofields() {
+        return pseudofields;
+    }
+
+    /**
+     * @return the alias dictionary for each pseudofield
+     */
+    public Map<String, AliasDictionary> getAliases() {
         return aliases;
     }
 
+    /**
+     * @return the estimated heap used by the alias dictionaries, routes and the DOM of the config file
+     */
+    @Override
+    public long ramBytesUsed() {
+        long bytes = AliasRamUsage.HASH_MAP_BYTES + RamUsageEstimator.shallowSizeOf(pseudofields) + domRamBytesUsed;
+        for (Map.Entry<String, AliasDictionary> fieldAliases : aliases.entrySet()) {
+            bytes += AliasRamUsage.HASH_ENTRY_BYTES + AliasRamUsage.sizeOf(fieldAliases.getKey())
+                    + fieldAliases.getValue().ramBytesUsed();
+        }
+        return bytes + routesRamBytesUsed();
+    }
+
+    private long routesRamBytesUsed() {
+        long bytes = AliasRamUsage.HASH_MAP_BYTES;
+        for (Map<String, AliasRoute> fieldRoutes : routes.values()) {
+            bytes += AliasRamUsage.HASH_ENTRY_BYTES + AliasRamUsage.HASH_MAP_BYTES;
+            for (Map.Entry<String, AliasRoute> route : fieldRoutes.entrySet()) {
+                bytes += AliasRamUsage.HASH_ENTRY_BYTES + route.getValue().ramBytesUsed();
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public Collection<Accountable> getChildResources() {
+        List<Accountable> resources = new ArrayList<>();
+        for (Map.Entry<String, AliasDictionary> fieldAliases : aliases.entrySet()) {
+            resources.add(Accountables.namedAccountable("aliases " + fieldAliases.getKey(), fieldAliases.getValue()));
+        }
+        resources.add(Accountables.namedAccountable("routes", routesRamBytesUsed()));
+        resources.add(Accountables.namedAccountable("dom", domRamBytesUsed));
+        return Collections.unmodifiableList(resources);
+    }
+
+    /**
+     * @return a hash of the aliases and their queries, which changes whenever an alias query changes
+     */
+    public String getConfigHash() {
+        return configHash;
+    }
+
     public static AliasConfig readFromResourceLoader(SolrResourceLoader loader, String name) {
         try {
             return new AliasConfig(loader, name, null);
@@ -0,0 +1,105 @@
+package org.apache.solr.core;
+
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The aliases added, removed and changed, per pseudofield, between two alias configurations.
+ */
+public class AliasConfigDiff {
+
+    private final Map<String, Set<String>> added = new TreeMap<>();
+    private final Map<String, Set<String>> removed = new TreeMap<>();
+    private final Map<String, Set<String>> changed = new TreeMap<>();
+
+    public AliasConfigDiff(AliasConfig oldConfig, AliasConfig newConfig) {
+        Map<String, AliasDictionary> oldAliases = oldConfig.getAliases();
+        Map<String, AliasDictionary> newAliases = newConfig.getAliases();
+        Set<String> fields = new HashSet<>(oldAliases.keySet());
+        fields.addAll(newAliases.keySet());
+        for (String field : fields) {
+            AliasDictionary oldDictionary = oldAliases.get(field);
+            AliasDictionary newDictionary = newAliases.get(field);
+            if (oldDictionary == null) {
+                add(added, field, newDictionary.names());
+            } else if (newDictionary == null) {
+                add(removed, field, oldDictionary.names());
+            } else {
+                for (String alias : oldDictionary.names()) {
+                    String newQuery = newDictionary.get(alias);
+                    if (newQuery == null) {
+                        add(removed, field, Collections.singleton(alias));
+                    } else if (!newQuery.equals(oldDictionary.get(alias))) {
+                        add(changed, field, Collections.singleton(alias));
+                    }
+                }
+                for (String alias : newDictionary.names()) {
+                    if (!oldDictionary.containsKey(alias)) {
+                        add(added, field, Collections.singleton(alias));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void add(Map<String, Set<String>> diff, String field, Iterable<String> aliases) {
+        for (String alias : aliases) {
+            diff.computeIfAbsent(field, f -> new TreeSet<>()).add(alias);
+        }
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    /**
+     * @return the pseudofields with added, removed or changed aliases
+     */
+    public Set<String> getFields() {
+        Set<String> fields = new TreeSet<>(added.keySet());
+        fields.addAll(removed.keySet());
+        fields.addAll(changed.keySet());
+        return fields;
+    }
+
+    public Set<String> getAdded(String field) {
+        return added.getOrDefault(field, Collections.emptySet());
+    }
+
+    public Set<String> getRemoved(String field) {
+        return removed.getOrDefault(field, Collections.emptySet());
+    }
+
+    public Set<String> getChanged(String field) {
+        return changed.getOrDefault(field, Collections.emptySet());
+    }
+
+    /**
+     * @return the aliases of the pseudofield which were added, removed or changed
+     */
+    public Set<String> getAffected(String field) {
+        Set<String> affected = new TreeSet<>(getAdded(field));
+        affected.addAll(getRemoved(field));
+        affected.addAll(getChanged(field));
+        return affected;
+    }
+
+    public NamedList<Object> toNamedList() {
+        NamedList<Object> diff = new SimpleOrderedMap<>();
+        for (String field : getFields()) {
+            NamedList<Object> fieldDiff = new SimpleOrderedMap<>();
+            fieldDiff.add("added", getAdded(field));
+            fieldDiff.add("removed", getRemoved(field));
+            fieldDiff.add("changed", getChanged(field));
+            diff.add(field, fieldDiff);
+        }
+        return diff;
+    }
+}
@@ -0,0 +1,267 @@
+package org.apache.solr.core;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.StringHelper;
+import org.apache.lucene.util.automaton.ByteRunAutomaton;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.BytesRefFSTEnum;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * The aliases defined for a single pseudofield.
+ *
+ * The alias names are held in an FST, in sorted (UTF-8 byte) order, mapping each name to the ordinal of its
+ * query. This is more compact than a HashMap and allows prefix and wildcard patterns, e.g. music_*, to be
+ * expanded by enumerating only the names sharing the literal prefix of the pattern. The queries are held as
+ * {@link FactoredQueries}, so clauses repeated across the queries are stored once.
+ */
+public class AliasDictionary
+        implements Accountable {
+
+    public static final char WILDCARD_STRING = WildcardQuery.WILDCARD_STRING;
+    public static final char WILDCARD_CHAR = WildcardQuery.WILDCARD_CHAR;
+
+    private static final int SHORT_ALIAS_LENGTH = 4;
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(AliasDictionary.class);
+
+    private final FST<Long> fst;
+    private final FactoredQueries queries;
+
+    /**
+     * @param aliases the alias names mapped to their queries
+     */
+    public AliasDictionary(Map<String, String> aliases) {
+        BytesRef[] names = new BytesRef[aliases.size()];
+        int n = 0;
+        for (String alias : aliases.keySet()) {
+            names[n++] = new BytesRef(alias);
+        }
+        Arrays.sort(names);
+
+        String[] sortedQueries = new String[names.length];
+        try {
+            Builder<Long> builder = new Builder<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+            IntsRefBuilder scratch = new IntsRefBuilder();
+            for (int i = 0; i < names.length; i++) {
+                sortedQueries[i] = aliases.get(names[i].utf8ToString());
+                builder.add(Util.toIntsRef(names[i], scratch), (long) i);
+            }
+            // the builder returns null if no aliases were added
+            fst = builder.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        queries = new FactoredQueries(sortedQueries);
+    }
+
+    public int size() {
+        return queries.size();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return BASE_RAM_BYTES_USED + (fst == null ? 0 : fst.ramBytesUsed()) + queries.ramBytesUsed();
+    }
+
+    public boolean containsKey(String alias) {
+        return ordinal(alias) >= 0;
+    }
+
+    /**
+     * @return the query for the alias, or null if the alias is not defined
+     */
+    public String get(String alias) {
+        int ord = ordinal(alias);
+        return ord < 0 ? null : queries.get(ord);
+    }
+
+    /**
+     * Returns the query for the alias with each clause it shares with other aliases replaced by a reference.
+     *
+     * @param sharedReference returns the reference to the shared clause with the given ordinal
+     * @return the query, or null if the alias is not defined
+     */
+    public String get(String alias, IntFunction<String> sharedReference) {
+        int ord = ordinal(alias);
+        return ord < 0 ? null : queries.get(ord, sharedReference);
+    }
+
+    /**
+     * @return the number of clauses shared by the alias queries
+     */
+    public int sharedCount() {
+        return queries.sharedCount();
+    }
+
+    /**
+     * @return the shared clause, or null if there is no clause with the ordinal
+     */
+    public String getShared(int sharedOrd) {
+        return sharedOrd >= 0 && sharedOrd < queries.sharedCount() ? queries.getShared(sharedOrd) : null;
+    }
+
+    /**
+     * @return true if the alias contains a wildcard, i.e. '*' or '?'
+     */
+    public static boolean isPattern(String alias) {
+        return alias.indexOf(WILDCARD_STRING) >= 0 || alias.indexOf(WILDCARD_CHAR) >= 0;
+    }
+
+    /**
+     * Returns the aliases matching a pattern, in sorted order. Only the aliases sharing the literal prefix
+     * of the pattern are enumerated, so a prefix pattern costs time proportional to the number of matches.
+     *
+     * @param pattern an alias name, which may contain the wildcards '*' and '?'
+     */
+    public List<String> match(String pattern) {
+        if (fst == null) {
+            return Collections.emptyList();
+        }
+        int wildcard = 0;
+        while (wildcard < pattern.length()
+                && pattern.charAt(wildcard) != WILDCARD_STRING && pattern.charAt(wildcard) != WILDCARD_CHAR) {
+            wildcard++;
+        }
+        if (wildcard == pattern.length()) {
+            return containsKey(pattern) ? Collections.singletonList(pattern) : Collections.emptyList();
+        }
+        // a single trailing '*' matches every alias with the prefix, otherwise each alias must be checked
+        CharacterRunAutomaton automaton = null;
+        if (wildcard != pattern.length() - 1 || pattern.charAt(wildcard) != WILDCARD_STRING) {
+            automaton = new CharacterRunAutomaton(WildcardQuery.toAutomaton(new Term("", pattern)));
+        }
+
+        BytesRef prefix = new BytesRef(pattern.substring(0, wildcard));
+        List<String> matches = new ArrayList<>();
+        try {
+            BytesRefFSTEnum<Long> fstEnum = new BytesRefFSTEnum<>(fst);
+            BytesRefFSTEnum.InputOutput<Long> next = fstEnum.seekCeil(prefix);
+            while (next != null && StringHelper.startsWith(next.input, prefix)) {
+                String alias = next.input.utf8ToString();
+                if (automaton == null || automaton.run(alias)) {
+                    matches.add(alias);
+                }
+                next = fstEnum.next();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return matches;
+    }
+
+    /**
+     * @return all the alias names, in sorted order
+     */
+    public List<String> names() {
+        return match(String.valueOf(WILDCARD_STRING));
+    }
+
+    /**
+     * Suggests the defined aliases closest to an undefined alias, within two edits (insertions, deletions,
+     * substitutions or transpositions), or one edit for aliases of up to four characters. A Levenshtein automaton
+     * of the alias is intersected with the FST, so only the prefixes within the edit distance are visited rather
+     * than every alias.
+     *
+     * @param alias the undefined alias
+     * @param count the maximum number of suggestions
+     * @return the suggestions, closest first
+     */
+    public List<String> suggest(String alias, int count) {
+        if (fst == null || count <= 0) {
+            return Collections.emptyList();
+        }
+        // a single edit for short aliases, otherwise almost every short alias would be suggested
+        int maxEdits = alias.length() <= SHORT_ALIAS_LENGTH ? 1 : LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE;
+        ByteRunAutomaton automaton = new ByteRunAutomaton(new LevenshteinAutomata(alias, true).toAutomaton(maxEdits));
+
+        List<String> suggestions = new ArrayList<>();
+        try {
+            // state 0 is the initial state of the automaton
+            intersect(fst.getFirstArc(new FST.Arc<>()), 0, automaton, fst.getBytesReader(), new BytesRefBuilder(),
+                    suggestions);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        suggestions.remove(alias);
+        suggestions.sort(Comparator.comparingInt((String suggestion) -> editDistance(alias, suggestion))
+                .thenComparing(Comparator.naturalOrder()));
+        return suggestions.size() > count ? suggestions.subList(0, count) : suggestions;
+    }
+
+    private void intersect(FST.Arc<Long> follow, int state, ByteRunAutomaton automaton, FST.BytesReader in,
+                           BytesRefBuilder path, List<String> suggestions)
+            throws IOException {
+        if (follow.isFinal() && automaton.isAccept(state)) {
+            suggestions.add(path.get().utf8ToString());
+        }
+        if (!FST.targetHasArcs(follow)) {
+            return;
+        }
+        FST.Arc<Long> arc = fst.readFirstRealTargetArc(follow.target, new FST.Arc<>(), in);
+        while (true) {
+            int next = automaton.step(state, arc.label);
+            if (next != -1) {
+                path.append((byte) arc.label);
+                intersect(arc, next, automaton, in, path, suggestions);
+                path.setLength(path.length() - 1);
+            }
+            if (arc.isLast()) {
+                break;
+            }
+            fst.readNextRealArc(arc, in);
+        }
+    }
+
+    // the optimal string alignment distance, consistent with the transpositions allowed by the automaton
+    private static int editDistance(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + cost);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    private int ordinal(String alias) {
+        if (fst == null) {
+            return -1;
+        }
+        try {
+            Long ord = Util.get(fst, new BytesRef(alias));
+            return ord == null ? -1 : ord.intValue();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
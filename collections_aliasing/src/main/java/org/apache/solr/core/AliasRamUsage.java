@@ -0,0 +1,58 @@
+package org.apache.solr.core;
+
+import org.apache.lucene.util.Constants;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Estimates of the heap used by the objects held by the aliasing structures, which are all
+ * {@link org.apache.lucene.util.Accountable}.
+ */
+public final class AliasRamUsage {
+
+    /** An entry of a HashMap or ConcurrentHashMap, with its share of the table at the default load factor */
+    public static final long HASH_ENTRY_BYTES = RamUsageEstimator.alignObjectSize(
+            RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + Integer.BYTES + 3 * RamUsageEstimator.NUM_BYTES_OBJECT_REF)
+            + 2 * RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+    /** An empty HashMap or ConcurrentHashMap */
+    public static final long HASH_MAP_BYTES = RamUsageEstimator.alignObjectSize(
+            RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 4 * Integer.BYTES + 6 * RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+
+    private static final long STRING_BYTES = RamUsageEstimator.shallowSizeOfInstance(String.class);
+    // Latin-1 strings hold a byte per character from Java 9
+    private static final boolean COMPACT_STRINGS = Constants.JRE_IS_MINIMUM_JAVA9;
+
+    private AliasRamUsage() {
+    }
+
+    public static long sizeOf(String s) {
+        if (s == null) {
+            return 0;
+        }
+        long bytesPerChar = COMPACT_STRINGS && isLatin1(s) ? 1 : Character.BYTES;
+        return STRING_BYTES + RamUsageEstimator.alignObjectSize(
+                RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + bytesPerChar * s.length());
+    }
+
+    /**
+     * @return the size of the array and the strings it holds
+     */
+    public static long sizeOf(String[] strings) {
+        if (strings == null) {
+            return 0;
+        }
+        long bytes = RamUsageEstimator.shallowSizeOf(strings);
+        for (String s : strings) {
+            bytes += sizeOf(s);
+        }
+        return bytes;
+    }
+
+    private static boolean isLatin1(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
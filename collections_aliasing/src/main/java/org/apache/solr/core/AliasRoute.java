@@ -0,0 +1,60 @@
+package org.apache.solr.core;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.util.StrUtils;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The optional routing of an alias in SolrCloud: the shards holding the documents matching the alias,
+ * and/or the _route_ key of those documents.
+ */
+public class AliasRoute
+        implements Accountable {
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(AliasRoute.class);
+
+    private final List<String> shards;
+    private final String route;
+
+    /**
+     * @param shards the comma separated shard names, or null
+     * @param route  the route key, or null
+     */
+    public AliasRoute(String shards, String route) {
+        this.shards = shards == null || shards.trim().isEmpty()
+                ? Collections.emptyList()
+                : Collections.unmodifiableList(StrUtils.splitSmart(shards.trim(), ",", true));
+        this.route = route == null || route.trim().isEmpty() ? null : route.trim();
+    }
+
+    public List<String> getShards() {
+        return shards;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public boolean isEmpty() {
+        return shards.isEmpty() && route == null;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        // the shard list is an unmodifiable view of an ArrayList
+        long bytes = BASE_RAM_BYTES_USED + AliasRamUsage.sizeOf(route);
+        if (!shards.isEmpty()) {
+            bytes += 2 * RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER
+                    + Integer.BYTES + 2 * RamUsageEstimator.NUM_BYTES_OBJECT_REF)
+                    + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+                    + (long) RamUsageEstimator.NUM_BYTES_OBJECT_REF * shards.size());
+            for (String shard : shards) {
+                bytes += AliasRamUsage.sizeOf(shard);
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,199 @@
+package org.apache.solr.core;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * The queries of the aliases of a pseudofield, with the clauses repeated across several queries stored once.
+ *
+ * A clause is a top level parenthesised group of a query, e.g. (PROVIDER:"Europeana Fashion"), which is not the
+ * value of a field, as in what:(poster OR drawing). Each query is stored as a sequence of pieces, in which the
+ * shared clauses are the same String instances, so the text of a shared clause is held once however many
+ * aliases use it. The shared clauses can also be referenced separately, so that each is executed as its own
+ * cached filter.
+ */
+class FactoredQueries
+        implements Accountable {
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(FactoredQueries.class);
+
+    /** Shorter clauses are not shared, as the reference would save little */
+    static final int MIN_SHARED_LENGTH = 16;
+
+    private final String[][] pieces;
+    // the shared clause ordinal of each piece, or -1 for the unshared pieces; null if a query has no shared clauses
+    private final int[][] sharedOrds;
+    private final String[] shared;
+    private final long ramBytesUsed;
+
+    FactoredQueries(String[] queries) {
+        List<List<int[]>> allClauses = new ArrayList<>(queries.length);
+        Map<String, Integer> counts = new HashMap<>();
+        for (String query : queries) {
+            List<int[]> clauses = clauses(query);
+            allClauses.add(clauses);
+            Set<String> distinct = new HashSet<>();
+            for (int[] clause : clauses) {
+                if (clause[1] - clause[0] >= MIN_SHARED_LENGTH) {
+                    distinct.add(query.substring(clause[0], clause[1]));
+                }
+            }
+            for (String clause : distinct) {
+                counts.merge(clause, 1, Integer::sum);
+            }
+        }
+
+        Map<String, Integer> sharedOrdMap = new HashMap<>();
+        List<String> sharedList = new ArrayList<>();
+        pieces = new String[queries.length][];
+        sharedOrds = new int[queries.length][];
+        for (int i = 0; i < queries.length; i++) {
+            String query = queries[i];
+            List<String> queryPieces = new ArrayList<>();
+            List<Integer> queryOrds = new ArrayList<>();
+            int last = 0;
+            for (int[] clause : allClauses.get(i)) {
+                String text = query.substring(clause[0], clause[1]);
+                if (counts.getOrDefault(text, 0) < 2) {
+                    continue;
+                }
+                int ord = sharedOrdMap.computeIfAbsent(text, t -> {
+                    sharedList.add(t);
+                    return sharedList.size() - 1;
+                });
+                if (clause[0] > last) {
+                    queryPieces.add(query.substring(last, clause[0]));
+                    queryOrds.add(-1);
+                }
+                queryPieces.add(sharedList.get(ord));
+                queryOrds.add(ord);
+                last = clause[1];
+            }
+
+            if (queryPieces.isEmpty()) {
+                pieces[i] = new String[]{query};
+            } else {
+                if (last < query.length()) {
+                    queryPieces.add(query.substring(last));
+                    queryOrds.add(-1);
+                }
+                pieces[i] = queryPieces.toArray(new String[queryPieces.size()]);
+                sharedOrds[i] = queryOrds.stream().mapToInt(Integer::intValue).toArray();
+            }
+        }
+        shared = sharedList.toArray(new String[sharedList.size()]);
+        ramBytesUsed = computeRamBytesUsed();
+    }
+
+    private long computeRamBytesUsed() {
+        long bytes = BASE_RAM_BYTES_USED + RamUsageEstimator.shallowSizeOf(pieces)
+                + RamUsageEstimator.shallowSizeOf(sharedOrds) + RamUsageEstimator.shallowSizeOf(shared);
+        // the shared clauses are the same instances in every query using them, so are counted once
+        Set<String> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < pieces.length; i++) {
+            bytes += RamUsageEstimator.shallowSizeOf(pieces[i]);
+            for (String piece : pieces[i]) {
+                if (counted.add(piece)) {
+                    bytes += AliasRamUsage.sizeOf(piece);
+                }
+            }
+            if (sharedOrds[i] != null) {
+                bytes += RamUsageEstimator.sizeOf(sharedOrds[i]);
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return ramBytesUsed;
+    }
+
+    int size() {
+        return pieces.length;
+    }
+
+    /**
+     * @return the full query
+     */
+    String get(int ord) {
+        return get(ord, null);
+    }
+
+    /**
+     * @param sharedReference returns the text replacing the shared clause with the given ordinal, or null to use
+     *                        the clause itself; the clause is replaced with its parentheses, so the text should
+     *                        be a group too, as it may directly follow an operator, e.g. NOT(...)
+     */
+    String get(int ord, IntFunction<String> sharedReference) {
+        if (sharedOrds[ord] == null) {
+            return pieces[ord][0];
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < pieces[ord].length; i++) {
+            int sharedOrd = sharedOrds[ord][i];
+            sb.append(sharedOrd < 0 || sharedReference == null ? pieces[ord][i] : sharedReference.apply(sharedOrd));
+        }
+        return sb.toString();
+    }
+
+    int sharedCount() {
+        return shared.length;
+    }
+
+    String getShared(int sharedOrd) {
+        return shared[sharedOrd];
+    }
+
+    /**
+     * Returns the start (inclusive) and end (exclusive) of each top level parenthesised group of the query,
+     * ignoring the groups which are field values, or no groups if the parentheses or quotes are unbalanced.
+     */
+    static List<int[]> clauses(String query) {
+        List<int[]> clauses = new ArrayList<>();
+        int depth = 0;
+        int start = -1;
+        boolean quoted = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && c == '(') {
+                if (depth++ == 0) {
+                    start = i;
+                }
+            } else if (!quoted && c == ')') {
+                if (depth == 0) {
+                    return new ArrayList<>();
+                }
+                if (--depth == 0 && !isFieldValue(query, start)) {
+                    clauses.add(new int[]{start, i + 1});
+                }
+            }
+        }
+        if (depth != 0 || quoted) {
+            return new ArrayList<>();
+        }
+        return clauses;
+    }
+
+    private static boolean isFieldValue(String query, int start) {
+        int i = start - 1;
+        while (i >= 0 && Character.isWhitespace(query.charAt(i))) {
+            i--;
+        }
+        return i >= 0 && query.charAt(i) == ':';
+    }
+}
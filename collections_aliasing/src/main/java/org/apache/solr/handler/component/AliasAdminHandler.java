@@ -0,0 +1,59 @@
+package org.apache.solr.handler.component;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.core.AliasConfigDiff;
+import org.apache.solr.handler.RequestHandlerBase;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+
+/**
+ * Administers the aliasing of the core the handler is registered with.
+ *
+ * Supported actions:
+ * <ul>
+ * <li>reload - re-reads query_aliases.xml and returns the aliases added, removed and changed</li>
+ * <li>stats - returns the aliasing statistics of the core</li>
+ * <li>capture - returns the captured sample of aliased requests; the optional "rate" parameter sets the
+ * proportion of requests captured (0 disables capturing) and "clear=true" discards the captured requests</li>
+ * </ul>
+ */
+public class AliasAdminHandler
+        extends RequestHandlerBase {
+
+    public static final String ACTION = "action";
+    public static final String RELOAD = "reload";
+    public static final String STATS = "stats";
+    public static final String CAPTURE = "capture";
+    public static final String RATE = "rate";
+    public static final String CLEAR = "clear";
+
+    @Override
+    public void handleRequestBody(SolrQueryRequest req, SolrQueryResponse rsp)
+            throws Exception {
+        SolrParams params = req.getParams();
+        String action = params.get(ACTION);
+        if (RELOAD.equals(action)) {
+            AliasConfigDiff diff = QueryAliasing.reloadAliasConfig(req.getCore());
+            rsp.add("diff", diff.toNamedList());
+        } else if (STATS.equals(action)) {
+            rsp.add("stats", QueryAliasing.getStatistics(req.getCore()));
+        } else if (CAPTURE.equals(action)) {
+            QueryCapture capture = QueryAliasing.getQueryCapture(req.getCore());
+            if (params.get(RATE) != null) {
+                capture.setRate(params.getDouble(RATE));
+            }
+            if (params.getBool(CLEAR, false)) {
+                capture.clear();
+            }
+            rsp.add("capture", capture.dump());
+        } else {
+            throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "Unknown action: " + action);
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return "Administers the query aliasing configuration and caches";
+    }
+}
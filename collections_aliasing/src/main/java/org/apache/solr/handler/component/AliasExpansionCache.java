@@ -0,0 +1,287 @@
+package org.apache.solr.handler.component;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.solr.core.AliasConfig;
+import org.apache.solr.core.AliasConfigDiff;
+import org.apache.solr.core.AliasDictionary;
+import org.apache.solr.core.AliasRamUsage;
+import org.apache.solr.util.ConcurrentLRUCache;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Caches the expansion of q and fq values containing aliases.
+ *
+ * Each entry records the aliases (pseudofield:alias, or pseudofield:pattern) its expansion depends on, and a
+ * reverse index from each alias to the dependent entries allows a configuration change to invalidate only the
+ * entries using the added, removed or changed aliases.
+ *
+ * Each entry is bound to the alias config it was expanded from, and only returned to requests using that config.
+ * When the config is reloaded, the entries which do not depend on a changed alias are bound to the new config,
+ * so a request never combines an expansion from the previous config with one from the new config.
+ */
+class AliasExpansionCache
+        implements Accountable {
+
+    static final int DEFAULT_SIZE = Integer.getInteger("solr.alias.expansionCacheSize", 1024);
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(AliasExpansionCache.class)
+            + RamUsageEstimator.shallowSizeOfInstance(ConcurrentLRUCache.class) + 3 * AliasRamUsage.HASH_MAP_BYTES;
+    // the cache map entry, the LRU entry and the expansion
+    private static final long ENTRY_RAM_BYTES_USED = AliasRamUsage.HASH_ENTRY_BYTES
+            + RamUsageEstimator.shallowSizeOfInstance(ConcurrentLRUCache.CacheEntry.class)
+            + RamUsageEstimator.shallowSizeOfInstance(Expansion.class);
+    // the entry of the value in the key set of each dependency
+    private static final long DEPENDENT_RAM_BYTES_USED = AliasRamUsage.HASH_ENTRY_BYTES;
+
+    private final ConcurrentLRUCache<String, Expansion> cache;
+    private final Map<String, Set<String>> dependents = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> fieldPatterns = new ConcurrentHashMap<>();
+    // incremented by each invalidation, so an expansion computed from a replaced config is not cached
+    private final AtomicLong epoch = new AtomicLong();
+    private final AtomicLong ramBytesUsed = new AtomicLong(BASE_RAM_BYTES_USED);
+    private final LongAdder expansions = new LongAdder();
+    // shared by the puts, exclusive to the invalidations, so an entry cannot be added between the removal of
+    // the entries of the changed aliases and the binding of the remaining entries to the new config
+    private final ReadWriteLock invalidationLock = new ReentrantReadWriteLock();
+
+    AliasExpansionCache(int size) {
+        cache = new ConcurrentLRUCache<>(size, (int) (size * 0.9), (int) (size * 0.95), size / 4,
+                false, false, this::evicted);
+    }
+
+    long getEpoch() {
+        return epoch.get();
+    }
+
+    /**
+     * Counts a value which was not cached, so had to be expanded.
+     */
+    void expanded() {
+        expansions.increment();
+    }
+
+    /**
+     * @return the number of values expanded, rather than taken from the cache
+     */
+    long getExpansions() {
+        return expansions.sum();
+    }
+
+    /**
+     * @param config the alias config of the request
+     * @return the expansion of the value from the config, or null if it is not cached
+     */
+    String get(String value, AliasConfig config) {
+        Expansion expansion = cache.get(value);
+        return expansion == null || expansion.config != config ? null : expansion.value;
+    }
+
+    /**
+     * @param value        the q or fq value
+     * @param expanded     its expansion
+     * @param dependencies the pseudofield:alias keys of the aliases used in the expansion
+     * @param config       the alias config used for the expansion
+     * @param epoch        the epoch read before the alias config used for the expansion was read
+     */
+    void put(String value, String expanded, List<String> dependencies, AliasConfig config, long epoch) {
+        Expansion expansion = new Expansion(value, expanded, dependencies.toArray(new String[dependencies.size()]),
+                config);
+        invalidationLock.readLock().lock();
+        try {
+            if (this.epoch.get() != epoch) {
+                // the config was reloaded during the expansion
+                return;
+            }
+            for (String dependency : expansion.dependencies) {
+                dependents.computeIfAbsent(dependency, d -> ConcurrentHashMap.newKeySet()).add(value);
+                int colon = dependency.indexOf(':');
+                if (AliasDictionary.isPattern(dependency.substring(colon + 1))) {
+                    fieldPatterns.computeIfAbsent(dependency.substring(0, colon),
+                            f -> ConcurrentHashMap.newKeySet()).add(dependency.substring(colon + 1));
+                }
+            }
+            ramBytesUsed.addAndGet(expansion.ramBytesUsed);
+            Expansion replaced = cache.put(value, expansion);
+            if (replaced != null) {
+                ramBytesUsed.addAndGet(-replaced.ramBytesUsed);
+            }
+        } finally {
+            invalidationLock.readLock().unlock();
+        }
+    }
+
+    private Expansion remove(String value) {
+        Expansion expansion = cache.remove(value);
+        if (expansion != null) {
+            ramBytesUsed.addAndGet(-expansion.ramBytesUsed);
+        }
+        return expansion;
+    }
+
+    /**
+     * Removes the entries depending on the aliases added, removed or changed in the diff, and binds the remaining
+     * entries of the previous config to the new config. If a pseudofield was added or removed, all the entries are
+     * removed: a value cached before its pseudofield was added was left unexpanded, so does not depend on it.
+     *
+     * @return the number of entries removed
+     */
+    int invalidate(AliasConfigDiff diff, AliasConfig oldConfig, AliasConfig newConfig) {
+        invalidationLock.writeLock().lock();
+        try {
+            if (!oldConfig.getAliases().keySet().equals(newConfig.getAliases().keySet())) {
+                int removed = cache.size();
+                clear();
+                return removed;
+            }
+            epoch.incrementAndGet();
+            int removed = invalidate(diff);
+            for (Expansion expansion : cache.getLatestAccessedItems(Integer.MAX_VALUE).values()) {
+                if (expansion.config == oldConfig) {
+                    expansion.config = newConfig;
+                }
+            }
+            return removed;
+        } finally {
+            invalidationLock.writeLock().unlock();
+        }
+    }
+
+    private int invalidate(AliasConfigDiff diff) {
+        int removed = 0;
+        for (String field : diff.getFields()) {
+            Set<String> affected = diff.getAffected(field);
+            for (String alias : affected) {
+                removed += invalidate(field + ":" + alias);
+            }
+            Set<String> patterns = fieldPatterns.get(field);
+            if (patterns != null) {
+                for (String pattern : patterns) {
+                    CharacterRunAutomaton automaton =
+                            new CharacterRunAutomaton(WildcardQuery.toAutomaton(new Term(field, pattern)));
+                    for (String alias : affected) {
+                        if (automaton.run(alias)) {
+                            removed += invalidate(field + ":" + pattern);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    private int invalidate(String dependency) {
+        Set<String> values = dependents.remove(dependency);
+        if (values == null) {
+            return 0;
+        }
+        int removed = 0;
+        for (String value : values) {
+            Expansion expansion = remove(value);
+            if (expansion != null) {
+                unlink(value, expansion);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    void clear() {
+        invalidationLock.writeLock().lock();
+        try {
+            epoch.incrementAndGet();
+            // ConcurrentLRUCache.clear() does not reset the size it evicts by, so the entries are removed one by one
+            for (Object value : cache.getMap().keySet()) {
+                cache.remove((String) value);
+            }
+            dependents.clear();
+            fieldPatterns.clear();
+            ramBytesUsed.set(BASE_RAM_BYTES_USED);
+        } finally {
+            invalidationLock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return ramBytesUsed.get();
+    }
+
+    /**
+     * Removes the least recently used entries until the cache uses at most the given number of bytes.
+     *
+     * @return the number of entries removed
+     */
+    int evict(long maxRamBytesUsed) {
+        int removed = 0;
+        long used = ramBytesUsed.get();
+        int size = cache.size();
+        while (used > maxRamBytesUsed && size > 0) {
+            // the number of entries of average size to remove
+            int count = (int) Math.ceil(size * (double) (used - maxRamBytesUsed) / (used - BASE_RAM_BYTES_USED));
+            int batch = 0;
+            for (String value : cache.getOldestAccessedItems(Math.min(size, count)).keySet()) {
+                Expansion expansion = remove(value);
+                if (expansion != null) {
+                    unlink(value, expansion);
+                    batch++;
+                }
+            }
+            if (batch == 0) {
+                break;
+            }
+            removed += batch;
+            used = ramBytesUsed.get();
+            size = cache.size();
+        }
+        return removed;
+    }
+
+    private void evicted(String value, Expansion expansion) {
+        ramBytesUsed.addAndGet(-expansion.ramBytesUsed);
+        // the value may have been expanded again since it was evicted
+        if (cache.get(value) == null) {
+            unlink(value, expansion);
+        }
+    }
+
+    private void unlink(String value, Expansion expansion) {
+        for (String dependency : expansion.dependencies) {
+            Set<String> values = dependents.get(dependency);
+            if (values != null) {
+                values.remove(value);
+            }
+        }
+    }
+
+    private static class Expansion {
+        private final String value;
+        private final String[] dependencies;
+        private final long ramBytesUsed;
+        private volatile AliasConfig config;
+
+        private Expansion(String key, String value, String[] dependencies, AliasConfig config) {
+            this.value = value;
+            this.dependencies = dependencies;
+            this.config = config;
+            this.ramBytesUsed = ENTRY_RAM_BYTES_USED + AliasRamUsage.sizeOf(key) + AliasRamUsage.sizeOf(value)
+                    + AliasRamUsage.sizeOf(dependencies) + dependencies.length * DEPENDENT_RAM_BYTES_USED;
+        }
+    }
+}
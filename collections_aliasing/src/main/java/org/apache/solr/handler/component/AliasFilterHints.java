@@ -0,0 +1,127 @@
+package org.apache.solr.handler.component;
+
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.AliasConfig;
+import org.apache.solr.core.AliasDictionary;
+import org.apache.solr.search.AliasFilterCache;
+import org.apache.solr.search.AliasFilterQuery;
+import org.apache.solr.search.AliasQParserPlugin;
+import org.apache.solr.search.SolrIndexSearcher;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Chooses how a filter query consisting of a single alias is executed, from the number of documents the alias
+ * was measured to match the first time it was executed.
+ *
+ * Aliases matching a large proportion of the index are executed as uncached post filters, so they do not evict
+ * more useful entries from the filterCache, and aliases matching only a few documents are executed uncached
+ * ahead of the other filters. The remaining aliases use the filterCache as normal.
+ *
+ * The counts are those of the local core, so the hints are not applied to distributed requests, whose filters
+ * are executed against the documents of every shard. The shard requests are expanded by the coordinating core,
+ * so are not hinted either.
+ */
+class AliasFilterHints {
+
+    /** Whether hints are added to the alias filters, defaults to true when alias.cache is true */
+    static final String HINT = "alias.hint";
+    /** The minimum proportion of the index matched by an alias executed as a post filter */
+    static final String HUGE_RATIO = "alias.hint.hugeRatio";
+    /** The cost of the post filter, which must be at least 100 */
+    static final String HUGE_COST = "alias.hint.hugeCost";
+    /** The maximum number of documents matched by an alias executed uncached */
+    static final String RARE_DOCS = "alias.hint.rareDocs";
+    /** The cost of the uncached filter */
+    static final String RARE_COST = "alias.hint.rareCost";
+
+    static final float DEFAULT_HUGE_RATIO = 0.5f;
+    static final int DEFAULT_HUGE_COST = 200;
+    static final int DEFAULT_RARE_DOCS = 1000;
+    static final int DEFAULT_RARE_COST = 1;
+
+    enum Strategy {
+        /** the alias has not been executed against every segment */
+        UNMEASURED,
+        /** the alias is cached in the filterCache */
+        CACHED,
+        /** the alias is an uncached post filter */
+        HUGE,
+        /** the alias is an uncached filter */
+        RARE
+    }
+
+    private static final Pattern SINGLE_ALIAS = Pattern.compile("^\\s*(\\w+):(\\w+)\\s*$");
+
+    private final LongAdder[] counts = new LongAdder[Strategy.values().length];
+
+    AliasFilterHints() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Replaces the expansion of each fq value consisting of a single alias with an alias query carrying
+     * the cache and cost local params chosen for the alias.
+     *
+     * @param values         the fq values
+     * @param modifiedValues the expanded fq values
+     */
+    void apply(SolrIndexSearcher searcher, AliasConfig aliasConfig, AliasFilterCache filterCache, SolrParams params,
+               String[] values, String[] modifiedValues) {
+        for (int i = 0; i < values.length; i++) {
+            Matcher m = SINGLE_ALIAS.matcher(values[i]);
+            if (!m.matches()) {
+                continue;
+            }
+            String psField = m.group(1);
+            String alias = m.group(2);
+            AliasDictionary dictionary = aliasConfig.getAliases().get(psField);
+            String source = dictionary == null ? null : dictionary.get(alias);
+            if (source == null) {
+                continue;
+            }
+
+            long docCount = filterCache.docCount(searcher.getTopReaderContext().leaves(),
+                    AliasFilterQuery.key(psField, alias, params), source);
+            Strategy strategy = choose(docCount, searcher.maxDoc(), params);
+            counts[strategy.ordinal()].increment();
+            if (strategy == Strategy.HUGE) {
+                modifiedValues[i] = hinted(psField, alias, params.getInt(HUGE_COST, DEFAULT_HUGE_COST));
+            } else if (strategy == Strategy.RARE) {
+                modifiedValues[i] = hinted(psField, alias, params.getInt(RARE_COST, DEFAULT_RARE_COST));
+            }
+        }
+    }
+
+    static Strategy choose(long docCount, int maxDoc, SolrParams params) {
+        if (docCount < 0) {
+            return Strategy.UNMEASURED;
+        }
+        if (maxDoc > 0 && docCount >= maxDoc * params.getFloat(HUGE_RATIO, DEFAULT_HUGE_RATIO)) {
+            return Strategy.HUGE;
+        }
+        if (docCount <= params.getInt(RARE_DOCS, DEFAULT_RARE_DOCS)) {
+            return Strategy.RARE;
+        }
+        return Strategy.CACHED;
+    }
+
+    private static String hinted(String psField, String alias, int cost) {
+        return "{!" + AliasQParserPlugin.NAME + " f=" + psField + " v=" + alias + " cache=false cost=" + cost + "}";
+    }
+
+    NamedList<Object> getStatistics() {
+        NamedList<Object> stats = new SimpleOrderedMap<>();
+        for (Strategy strategy : Strategy.values()) {
+            stats.add(strategy.name().toLowerCase(Locale.ROOT), counts[strategy.ordinal()].sum());
+        }
+        return stats;
+    }
+}
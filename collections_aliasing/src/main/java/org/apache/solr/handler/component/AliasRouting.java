@@ -0,0 +1,169 @@
+package org.apache.solr.handler.component;
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.ShardParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.core.AliasConfig;
+import org.apache.solr.core.AliasDictionary;
+import org.apache.solr.core.AliasRoute;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.AliasExpression;
+import org.apache.solr.search.SyntaxError;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Restricts a distributed request to the shards holding the documents of the aliases it is restricted to.
+ *
+ * A q or fq value consisting of a single alias, or alias pattern, restricts the results to the documents of the
+ * matching aliases. If all of those aliases have shards defined in the alias config, the request only needs to
+ * be sent to the union of those shards, intersected across the restricting values. A group of aliases, e.g.
+ * collection:(a OR b), restricts the results in the same way unless it excludes any alias. Otherwise, if a single value
+ * restricts the request and all its aliases have a route key, the _route_ parameter is set instead.
+ */
+class AliasRouting {
+
+    /** Whether distributed requests are routed by alias, defaults to true */
+    static final String ROUTE = "alias.route";
+
+    private static final Pattern SINGLE_ALIAS = Pattern.compile("^\\s*\\+?(\\w+):(?:([\\w*?]+)|\\((.*)\\))\\s*$");
+
+    private AliasRouting() {
+    }
+
+    /**
+     * @return false if the request already sets the shards or _route_ parameter, or is not distributed, so is
+     * not routed by alias
+     */
+    static boolean isRouted(SolrQueryRequest req) {
+        SolrParams params = req.getParams();
+        return params.getBool(ROUTE, true) && params.getBool(CommonParams.DISTRIB, true)
+                && params.get(ShardParams.SHARDS) == null && params.get(ShardParams._ROUTE_) == null
+                && req.getCore().getCoreContainer().isZooKeeperAware();
+    }
+
+    /**
+     * Sets the shards or _route_ parameter of the request from the routing of the aliases it is restricted to.
+     * Requests which already set either parameter, or which are not distributed, are left unchanged.
+     */
+    static void route(SolrQueryRequest req, AliasConfig aliasConfig) {
+        if (!isRouted(req)) {
+            return;
+        }
+        SolrParams params = req.getParams();
+        SolrParams routedParams = routedParams(aliasConfig, params);
+        if (routedParams != null) {
+            req.setParams(routedParams);
+        }
+    }
+
+    /**
+     * @return the params with the shards or _route_ parameter set from the routing of the aliases the q and fq
+     * values are restricted to, or null if the aliases do not restrict the request to any shards or route
+     */
+    static SolrParams routedParams(AliasConfig aliasConfig, SolrParams params) {
+        Set<String> shards = null;
+        List<Set<String>> routes = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        String[] filters = params.getParams(CommonParams.FQ);
+        if (filters != null) {
+            Collections.addAll(values, filters);
+        }
+        if (params.get(CommonParams.Q) != null) {
+            values.add(params.get(CommonParams.Q));
+        }
+        for (String value : values) {
+            List<AliasRoute> aliasRoutes = restrictingRoutes(aliasConfig, value);
+            if (aliasRoutes == null) {
+                continue;
+            }
+            Set<String> valueShards = new LinkedHashSet<>();
+            Set<String> valueRoutes = new LinkedHashSet<>();
+            for (AliasRoute aliasRoute : aliasRoutes) {
+                if (valueShards != null && !aliasRoute.getShards().isEmpty()) {
+                    valueShards.addAll(aliasRoute.getShards());
+                } else {
+                    valueShards = null;
+                }
+                if (valueRoutes != null && aliasRoute.getRoute() != null) {
+                    valueRoutes.add(aliasRoute.getRoute());
+                } else {
+                    valueRoutes = null;
+                }
+            }
+            if (valueShards != null) {
+                if (shards == null) {
+                    shards = valueShards;
+                } else {
+                    shards.retainAll(valueShards);
+                }
+            }
+            if (valueRoutes != null) {
+                routes.add(valueRoutes);
+            }
+        }
+
+        ModifiableSolrParams routedParams = new ModifiableSolrParams(params);
+        if (shards != null && !shards.isEmpty()) {
+            routedParams.set(ShardParams.SHARDS, String.join(",", shards));
+        } else if (routes.size() == 1) {
+            routedParams.set(ShardParams._ROUTE_, String.join(",", routes.get(0)));
+        } else {
+            return null;
+        }
+        return routedParams;
+    }
+
+    /**
+     * @return the routes of the aliases matched by a value consisting of a single alias, alias pattern or group
+     * of aliases, or null if the value is not a single alias or group, or one of the aliases has no routing
+     */
+    static List<AliasRoute> restrictingRoutes(AliasConfig aliasConfig, String value) {
+        Matcher m = SINGLE_ALIAS.matcher(value);
+        if (!m.matches()) {
+            return null;
+        }
+        String psField = m.group(1);
+        AliasDictionary dictionary = aliasConfig.getAliases().get(psField);
+        if (dictionary == null) {
+            return null;
+        }
+        List<String> matches = new ArrayList<>();
+        if (m.group(2) != null) {
+            matches.addAll(dictionary.match(m.group(2)));
+        } else {
+            AliasExpression expression;
+            try {
+                expression = AliasExpression.parse(m.group(3));
+            } catch (SyntaxError e) {
+                return null;
+            }
+            // a subset of the union of the aliases, unless documents outside the aliases can match
+            if (expression.hasNegation()) {
+                return null;
+            }
+            for (String alias : expression.getAliases()) {
+                matches.addAll(dictionary.match(alias));
+            }
+        }
+        if (matches.isEmpty()) {
+            return null;
+        }
+        List<AliasRoute> aliasRoutes = new ArrayList<>(matches.size());
+        for (String alias : matches) {
+            AliasRoute aliasRoute = aliasConfig.getRoute(psField, alias);
+            if (aliasRoute == null) {
+                return null;
+            }
+            aliasRoutes.add(aliasRoute);
+        }
+        return aliasRoutes;
+    }
+}
@@ -0,0 +1,44 @@
+package org.apache.solr.handler.component;
+
+import org.apache.solr.common.params.SolrParams;
+
+import java.io.IOException;
+
+/**
+ * Expands aliases as a first component of any SearchHandler.
+ *
+ * Unlike the {@link AliasingSearchHandler}, which replaces the handler class, the component rewrites the request
+ * in its prepare phase, before the query component parses q and fq. It can therefore be added to handlers which
+ * must keep their own class and invariants, such as the /export handler used by the streaming expressions.
+ */
+public class AliasingComponent
+        extends SearchComponent {
+
+    public static final String COMPONENT_NAME = "aliasing";
+
+    @Override
+    public void prepare(ResponseBuilder rb)
+            throws IOException {
+        SolrParams params = rb.req.getParams();
+        if (!params.getBool(COMPONENT_NAME, true)) {
+            return;
+        }
+        QueryAliasing.modifyRequest(rb.req);
+    }
+
+    @Override
+    public void process(ResponseBuilder rb)
+            throws IOException {
+        // the request has already been rewritten in prepare
+    }
+
+    @Override
+    public String getDescription() {
+        return "Expands keyword arguments and pseudofields into Solr-parseable queries";
+    }
+
+    @Override
+    public String getSource() {
+        return null;
+    }
+}
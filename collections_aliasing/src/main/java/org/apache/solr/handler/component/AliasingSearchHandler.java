@@ -1,5 +1,7 @@
 package org.apache.solr.handler.component;
 
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.metrics.SolrMetricManager;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.common.util.NamedList;
@@ -18,17 +20,41 @@ import org.apache.solr.common.util.NamedList;
 public class AliasingSearchHandler
         extends SearchHandler {
 
+    private volatile SolrCore core;
+
     public void init(NamedList params) {
         super.init(params);
     }
 
+    @Override
+    public void inform(SolrCore core) {
+        super.inform(core);
+        this.core = core;
+    }
+
+    @Override
+    public void initializeMetrics(SolrMetricManager manager, String registryName, String scope) {
+        super.initializeMetrics(manager, registryName, scope);
+        QueryAliasing.registerMetrics(() -> core, manager, registryName, getCategory().toString(), scope, "aliasing");
+    }
+
     @Override
     public void handleRequestBody(SolrQueryRequest req, SolrQueryResponse rsp)
             throws Exception {
+        QueryAliasing.routeRequest(req);
         QueryAliasing.modifyRequest(req);
         super.handleRequestBody(req, rsp);
     }
 
+    @Override
+    public NamedList<Object> getStatistics() {
+        NamedList<Object> lst = super.getStatistics();
+        if (core != null) {
+            lst.add("aliasing", QueryAliasing.getStatistics(core));
+        }
+        return lst;
+    }
+
     @Override
     public String getDescription() {
         return "Expands keyword arguments and pseudofields into Solr-parseable queries";
@@ -1,40 +1,380 @@
 package org.apache.solr.handler.component;
 
+import com.codahale.metrics.Gauge;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.util.Accountable;
 import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.MultiMapSolrParams;
+import org.apache.solr.common.params.ShardParams;
 import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.core.AliasConfig;
+import org.apache.solr.core.AliasConfigDiff;
+import org.apache.solr.core.AliasDictionary;
+import org.apache.solr.core.CloseHook;
 import org.apache.solr.core.SolrCore;
+import org.apache.solr.metrics.SolrMetricManager;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.AliasExpression;
+import org.apache.solr.search.AliasFilterCache;
+import org.apache.solr.search.AliasFilterStore;
+import org.apache.solr.search.AliasQParserPlugin;
+import org.apache.solr.search.SyntaxError;
+import org.apache.solr.util.DefaultSolrThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.lang.invoke.MethodHandles;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class QueryAliasing {
 
+    /**
+     * Request parameter which, when true, expands aliases into {@link AliasQParserPlugin} references
+     * whose documents are cached per segment, rather than splicing in the alias query string.
+     */
+    public static final String ALIAS_CACHE = "alias.cache";
+
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    // the request context key of the alias config the request is routed, expanded and parsed with
+    private static final String ALIAS_CONFIG_CONTEXT = "alias.config";
+    // distinguishes the cached expansions of the two modes
+    private static final String CACHE_FILTERS_KEY_PREFIX = "{!" + ALIAS_CACHE + "}";
+    private static final int MAX_SUGGESTIONS = 3;
+    // the heap the expansion and filter caches of all the cores may use before they are evicted
+    private static final long RAM_BUDGET = Long.getLong("solr.alias.ramBudgetMB",
+            Runtime.getRuntime().maxMemory() / 20 / (1024 * 1024)) * 1024 * 1024;
+    // the caches are evicted below the budget, so a request just over the budget does not evict again
+    private static final double RAM_BUDGET_LOW_WATER = 0.9;
+    // evicts in the background, like the cleanup thread of a ConcurrentLRUCache, so the request taking the caches
+    // over the budget does not wait for it; the thread exits when idle, so is not left running with no cores
+    private static final ExecutorService evictionExecutor = new ExecutorUtil.MDCAwareThreadPoolExecutor(0, 1,
+            5, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new DefaultSolrThreadFactory("aliasCacheEviction"));
+    private static final AtomicBoolean evictionScheduled = new AtomicBoolean();
+
     // It is possible for the map to be accessed by different thread, thus use ConcurrentHashMap.
     private static final Map<SolrCore, AliasConfig> coreAliasConfigMap = new ConcurrentHashMap<>();
+    private static final Map<SolrCore, AliasFilterCache> coreFilterCacheMap = new ConcurrentHashMap<>();
+    private static final Map<SolrCore, AliasExpansionCache> coreExpansionCacheMap = new ConcurrentHashMap<>();
+    private static final Map<SolrCore, AliasFilterHints> coreFilterHintsMap = new ConcurrentHashMap<>();
+    private static final Map<SolrCore, QueryCapture> coreQueryCaptureMap = new ConcurrentHashMap<>();
+    private static final Map<String, Pattern> aliasPatterns = new ConcurrentHashMap<>();
 
-    static void modifyRequest(SolrQueryRequest req) {
-        SolrCore core = req.getCore();
+    public static AliasConfig getAliasConfig(SolrCore core) {
         AliasConfig aliasConfig = coreAliasConfigMap.get(core);
         if (aliasConfig == null) {
-            try {
-                // Note it is possible to use the init param to parameterise the AliasConfig constructor
-                Path instanceDir = core.getCoreDescriptor().getInstanceDir();
-                Path confDir = instanceDir.resolve("conf");
-                aliasConfig = new AliasConfig(confDir, AliasConfig.DEFAULT_CONF_FILE, null);
-                coreAliasConfigMap.put(core, aliasConfig);
-            } catch (Exception e) {
-                throw new SolrException(SolrException.ErrorCode.NOT_FOUND, "Alias config file not found", e);
+            aliasConfig = loadAliasConfig(core);
+            if (coreAliasConfigMap.putIfAbsent(core, aliasConfig) == null) {
+                // release the per core state when the core is closed or reloaded
+                core.addCloseHook(new CloseHook() {
+                    @Override
+                    public void preClose(SolrCore core) {
+                        AliasFilterCache filterCache = coreFilterCacheMap.get(core);
+                        if (filterCache != null) {
+                            filterCache.close();
+                        }
+                    }
+
+                    @Override
+                    public void postClose(SolrCore core) {
+                        coreAliasConfigMap.remove(core);
+                        coreFilterCacheMap.remove(core);
+                        coreExpansionCacheMap.remove(core);
+                        coreFilterHintsMap.remove(core);
+                        coreQueryCaptureMap.remove(core);
+                    }
+                });
+            } else {
+                aliasConfig = coreAliasConfigMap.get(core);
             }
         }
+        return aliasConfig;
+    }
+
+    /**
+     * @return the alias config of the request: the config of its core when the request was first routed or
+     * expanded, so the q and fq values of a request are never parsed with a config reloaded since their expansion
+     */
+    public static AliasConfig getAliasConfig(SolrQueryRequest req) {
+        AliasConfig aliasConfig = (AliasConfig) req.getContext().get(ALIAS_CONFIG_CONTEXT);
+        if (aliasConfig == null) {
+            aliasConfig = getAliasConfig(req.getCore());
+            req.getContext().put(ALIAS_CONFIG_CONTEXT, aliasConfig);
+        }
+        return aliasConfig;
+    }
+
+    private static AliasConfig loadAliasConfig(SolrCore core) {
+        try {
+            // Note it is possible to use the init param to parameterise the AliasConfig constructor
+            Path instanceDir = core.getCoreDescriptor().getInstanceDir();
+            Path confDir = instanceDir.resolve("conf");
+            return new AliasConfig(confDir, AliasConfig.DEFAULT_CONF_FILE, null);
+        } catch (Exception e) {
+            throw new SolrException(SolrException.ErrorCode.NOT_FOUND, "Alias config file not found", e);
+        }
+    }
+
+    /**
+     * Re-reads the alias config file for the core, invalidating only the cached expansions and filters
+     * which depend on the aliases that have been added, removed or changed.
+     *
+     * @return the differences between the previous and the new config
+     */
+    public static AliasConfigDiff reloadAliasConfig(SolrCore core) {
+        return reloadAliasConfig(core, loadAliasConfig(core));
+    }
+
+    static synchronized AliasConfigDiff reloadAliasConfig(SolrCore core, AliasConfig aliasConfig) {
+        AliasConfig oldConfig = getAliasConfig(core);
+        coreAliasConfigMap.put(core, aliasConfig);
+        AliasConfigDiff diff = new AliasConfigDiff(oldConfig, aliasConfig);
+        int expansions = getExpansionCache(core).invalidate(diff, oldConfig, aliasConfig);
+
+        AliasFilterCache filterCache = coreFilterCacheMap.get(core);
+        int filters = 0;
+        if (filterCache != null) {
+            for (String field : diff.getFields()) {
+                for (String alias : diff.getAffected(field)) {
+                    filters += filterCache.invalidate(field + ":" + alias);
+                }
+            }
+            // the shared clauses are renumbered when the config changes
+            for (Map.Entry<String, AliasDictionary> fieldAliases : oldConfig.getAliases().entrySet()) {
+                String field = fieldAliases.getKey();
+                AliasDictionary oldDictionary = fieldAliases.getValue();
+                AliasDictionary newDictionary = aliasConfig.getAliases().get(field);
+                for (int i = 0; i < oldDictionary.sharedCount(); i++) {
+                    String shared = oldDictionary.getShared(i);
+                    if (newDictionary == null || !shared.equals(newDictionary.getShared(i))) {
+                        filters += filterCache.invalidate(field + ":" + AliasQParserPlugin.SHARED_PREFIX + i);
+                    }
+                }
+            }
+        }
+        log.info("Reloaded {} for core {}, invalidated {} cached expansions and {} cached filters",
+                aliasConfig.getConfigFilename(), core.getName(), expansions, filters);
+        return diff;
+    }
+
+    // called by every request, so computeIfAbsent, which locks the bin of the core even when it is present on
+    // Java 8, is only called when the map has no entry; the getters below do the same
+    public static AliasFilterCache getAliasFilterCache(SolrCore core) {
+        AliasFilterCache filterCache = coreFilterCacheMap.get(core);
+        if (filterCache == null) {
+            filterCache = coreFilterCacheMap.computeIfAbsent(core, c -> {
+                // the config is loaded first, so the store is closed with the core
+                getAliasConfig(c);
+                return new AliasFilterCache(AliasFilterStore.open(c, () -> getAliasConfig(c).getConfigHash()),
+                        () -> checkRamBudget(RAM_BUDGET));
+            });
+        }
+        return filterCache;
+    }
+
+    static AliasExpansionCache getExpansionCache(SolrCore core) {
+        AliasExpansionCache expansionCache = coreExpansionCacheMap.get(core);
+        if (expansionCache == null) {
+            expansionCache = coreExpansionCacheMap.computeIfAbsent(core,
+                    c -> new AliasExpansionCache(AliasExpansionCache.DEFAULT_SIZE));
+        }
+        return expansionCache;
+    }
+
+    static AliasFilterHints getFilterHints(SolrCore core) {
+        AliasFilterHints filterHints = coreFilterHintsMap.get(core);
+        if (filterHints == null) {
+            filterHints = coreFilterHintsMap.computeIfAbsent(core, c -> new AliasFilterHints());
+        }
+        return filterHints;
+    }
+
+    static QueryCapture getQueryCapture(SolrCore core) {
+        QueryCapture capture = coreQueryCaptureMap.get(core);
+        if (capture == null) {
+            capture = coreQueryCaptureMap.computeIfAbsent(core, c -> new QueryCapture(QueryCapture.DEFAULT_CAPACITY));
+        }
+        return capture;
+    }
+
+    /**
+     * Returns the aliasing statistics of the core, reported by the aliasing handlers. The state of the core is
+     * not created to report it, so the caches which have not been used report 0.
+     */
+    public static NamedList<Object> getStatistics(SolrCore core) {
+        AliasExpansionCache expansionCache = coreExpansionCacheMap.get(core);
+        AliasFilterCache filterCache = coreFilterCacheMap.get(core);
+        AliasFilterHints filterHints = coreFilterHintsMap.get(core);
+        NamedList<Object> stats = new SimpleOrderedMap<>();
+        stats.add("expansionCacheSize", expansionCache == null ? 0 : expansionCache.size());
+        stats.add("expansions", expansionCache == null ? 0L : expansionCache.getExpansions());
+        stats.add("filterCacheSegments", filterCache == null ? 0 : filterCache.size());
+        stats.add("filterStrategies", (filterHints == null ? new AliasFilterHints() : filterHints).getStatistics());
+
+        NamedList<Object> ram = new SimpleOrderedMap<>();
+        long config = ramBytesUsed(coreAliasConfigMap.get(core));
+        long expansionCacheRam = ramBytesUsed(expansionCache);
+        long filterCacheRam = ramBytesUsed(filterCache);
+        long capture = ramBytesUsed(coreQueryCaptureMap.get(core));
+        ram.add("config", config);
+        ram.add("expansionCache", expansionCacheRam);
+        ram.add("filterCache", filterCacheRam);
+        ram.add("capture", capture);
+        ram.add("total", config + expansionCacheRam + filterCacheRam + capture);
+        stats.add("ramBytesUsed", ram);
+        stats.add("cacheRamBudget", RAM_BUDGET);
+        stats.add("cacheRamBytesUsedAllCores", cacheRamBytesUsed());
+        return stats;
+    }
+
+    private static long ramBytesUsed(Accountable accountable) {
+        return accountable == null ? 0 : accountable.ramBytesUsed();
+    }
+
+    /**
+     * Registers the sizes and heap use of the aliasing state of a core as gauges in its metric registry. Like the
+     * statistics, the gauges read the state without creating it. The core is supplied, as the handlers registering
+     * the gauges are only informed of their core once their metrics have been initialized.
+     *
+     * @param path the path of the gauges in the registry
+     */
+    public static void registerMetrics(Supplier<SolrCore> core, SolrMetricManager manager, String registry,
+                                       String... path) {
+        registerGauge(core, c -> ramBytesUsed(coreAliasConfigMap.get(c)), manager, registry, "configRamBytesUsed",
+                path);
+        registerGauge(core, c -> ramBytesUsed(coreExpansionCacheMap.get(c)), manager, registry,
+                "expansionCacheRamBytesUsed", path);
+        registerGauge(core, c -> ramBytesUsed(coreFilterCacheMap.get(c)), manager, registry,
+                "filterCacheRamBytesUsed", path);
+        registerGauge(core, c -> ramBytesUsed(coreQueryCaptureMap.get(c)), manager, registry, "captureRamBytesUsed",
+                path);
+        registerGauge(core, c -> {
+            AliasExpansionCache expansionCache = coreExpansionCacheMap.get(c);
+            return expansionCache == null ? 0 : expansionCache.size();
+        }, manager, registry, "expansionCacheSize", path);
+        registerGauge(core, c -> {
+            AliasFilterCache filterCache = coreFilterCacheMap.get(c);
+            return filterCache == null ? 0 : filterCache.size();
+        }, manager, registry, "filterCacheSegments", path);
+        manager.registerGauge(registry, (Gauge<Long>) QueryAliasing::cacheRamBytesUsed, true,
+                "cacheRamBytesUsedAllCores", path);
+    }
+
+    private static void registerGauge(Supplier<SolrCore> core, ToLongFunction<SolrCore> value,
+                                      SolrMetricManager manager, String registry, String name, String... path) {
+        manager.registerGauge(registry, (Gauge<Long>) () -> {
+            SolrCore c = core.get();
+            return c == null ? 0L : value.applyAsLong(c);
+        }, true, name, path);
+    }
+
+    /**
+     * @return the heap used by the expansion and filter caches of all the cores
+     */
+    static long cacheRamBytesUsed() {
+        long bytes = 0;
+        for (AliasExpansionCache expansionCache : coreExpansionCacheMap.values()) {
+            bytes += expansionCache.ramBytesUsed();
+        }
+        for (AliasFilterCache filterCache : coreFilterCacheMap.values()) {
+            bytes += filterCache.ramBytesUsed();
+        }
+        return bytes;
+    }
+
+    /**
+     * Schedules the eviction of the caches if together they use more than the budget, unless an eviction is
+     * already scheduled. Called whenever a cache grows, so only sums the heap use of each cache.
+     */
+    static void checkRamBudget(long budget) {
+        if (cacheRamBytesUsed() > budget && evictionScheduled.compareAndSet(false, true)) {
+            evictionExecutor.execute(() -> {
+                try {
+                    enforceRamBudget(budget);
+                } catch (RuntimeException e) {
+                    log.warn("Failed to evict the alias caches", e);
+                } finally {
+                    evictionScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries of the expansion and filter caches of all the cores, in proportion
+     * to their size, until together they use at most the low watermark of the budget. Runs on the eviction thread,
+     * see {@link #checkRamBudget}.
+     */
+    static void enforceRamBudget(long budget) {
+        long used = cacheRamBytesUsed();
+        if (used <= budget) {
+            return;
+        }
+        double retained = budget * RAM_BUDGET_LOW_WATER / used;
+        int expansions = 0;
+        int filters = 0;
+        for (AliasExpansionCache expansionCache : coreExpansionCacheMap.values()) {
+            expansions += expansionCache.evict((long) (expansionCache.ramBytesUsed() * retained));
+        }
+        for (AliasFilterCache filterCache : coreFilterCacheMap.values()) {
+            filters += filterCache.evict((long) (filterCache.ramBytesUsed() * retained));
+        }
+        log.info("Alias caches used {} bytes of a {} byte budget, evicted {} expansions and {} filters",
+                used, budget, expansions, filters);
+    }
+
+    /**
+     * Restricts a distributed request to the shards holding the aliases it is restricted to,
+     * see {@link AliasRouting}. Must be called before the request is distributed and expanded.
+     */
+    static void routeRequest(SolrQueryRequest req) {
+        // the config is only kept in the context of the requests which may be routed
+        if (AliasRouting.isRouted(req)) {
+            AliasRouting.route(req, getAliasConfig(req));
+        }
+    }
+
+    static void modifyRequest(SolrQueryRequest req) {
+        SolrCore core = req.getCore();
+        QueryCapture capture = getQueryCapture(core);
+        boolean captured = capture.sample();
+        long start = captured ? System.nanoTime() : 0;
+        AliasExpansionCache expansionCache = getExpansionCache(core);
+        // read before the config, so that an expansion of a config replaced by a reload is not cached, unless the
+        // config was read when the request was routed, in which case the expansion is only returned to requests
+        // with that config
+        long epoch = expansionCache.getEpoch();
         SolrParams params = req.getParams();
+        // the pseudofields of the core's config are checked first, so a request without aliases does not create
+        // a context to keep the config in
+        AliasConfig coreConfig = getAliasConfig(core);
+        if (!hasPseudofield(coreConfig, params.getParams(CommonParams.Q))
+                && !hasPseudofield(coreConfig, params.getParams(CommonParams.FQ))) {
+            // nothing to expand, so the request keeps its parameters
+            if (captured) {
+                capture.record(params, params, System.nanoTime() - start);
+            }
+            return;
+        }
+        AliasConfig aliasConfig = getAliasConfig(req);
+        boolean cacheFilters = params.getBool(ALIAS_CACHE, false);
         Iterator<String> pnit = params.getParameterNamesIterator();
         Map<String, String[]> modifiedParams = new HashMap<String, String[]>();
         while (pnit.hasNext()) {
@@ -43,65 +383,105 @@ public class QueryAliasing {
             if (!pname.equals("q") && !pname.equals("fq")) {
                 modifiedParams.put(pname, pvalues);
             } else {
-                String[] modifiedValues = QueryAliasing.modifyValues(aliasConfig, pvalues);
+                String[] modifiedValues = QueryAliasing.modifyValues(aliasConfig, pvalues, cacheFilters,
+                        expansionCache, epoch);
+                if (cacheFilters && pname.equals("fq") && params.getBool(AliasFilterHints.HINT, true)
+                        && !isDistributed(req)) {
+                    getFilterHints(core).apply(req.getSearcher(), aliasConfig, getAliasFilterCache(core), params,
+                            pvalues, modifiedValues);
+                }
                 modifiedParams.put(pname, modifiedValues);
             }
         }
         MultiMapSolrParams newParams = new MultiMapSolrParams(modifiedParams);
         req.setParams(newParams);
+        // the expansions of the request have been cached
+        checkRamBudget(RAM_BUDGET);
+        if (captured) {
+            capture.record(params, newParams, System.nanoTime() - start);
+        }
+    }
+
+    /*
+     * A request is distributed to the shards unless distrib=false, if the core is in SolrCloud or the request lists
+     * its shards. Shard requests have distrib=false, and their values are already expanded.
+     */
+    private static boolean isDistributed(SolrQueryRequest req) {
+        SolrParams params = req.getParams();
+        if (!params.getBool(CommonParams.DISTRIB, true)) {
+            return false;
+        }
+        return params.get(ShardParams.SHARDS) != null
+                || req.getCore().getCoreContainer().isZooKeeperAware();
     }
 
     /*
-     * Given a HashMap listing pseudofields and their appropriate aliases and expansions,
+     * Checks the values for pseudofields without allocating, so requests without aliases cost next to nothing.
+     */
+    private static boolean hasPseudofield(AliasConfig aliasConfig, String[] values) {
+        if (values == null) {
+            return false;
+        }
+        for (String value : values) {
+            if (hasPseudofield(aliasConfig, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasPseudofield(AliasConfig aliasConfig, String value) {
+        for (String psField : aliasConfig.getPseudofields()) {
+            if (containsPseudofield(value, psField)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Equivalent to value.contains(psField + ":"), without concatenating.
+     */
+    private static boolean containsPseudofield(String value, String psField) {
+        int i = value.indexOf(psField);
+        while (i >= 0) {
+            int colon = i + psField.length();
+            if (colon < value.length() && value.charAt(colon) == ':') {
+                return true;
+            }
+            i = value.indexOf(psField, i + 1);
+        }
+        return false;
+    }
+
+    /*
+     * Given the alias dictionaries listing pseudofields and their appropriate aliases and expansions,
      * scans the passed list of parameters for pseudofields and swaps in expanded queries as
-     * appropriate.
+     * appropriate. If cacheFilters is set the pseudofield is replaced by a nested alias query,
+     * which is parsed by the {@link AliasQParserPlugin}, rather than by the expanded query.
      *
      * @author thill
      * @version 2017.11.14
      */
-    private static String[] modifyValues(AliasConfig aliasConfig, String[] checkValues) {
+    private static String[] modifyValues(AliasConfig aliasConfig, String[] checkValues, boolean cacheFilters,
+                                         AliasExpansionCache expansionCache, long epoch) {
 
-        HashMap<String, HashMap<String, String>> aliases = aliasConfig.getAliases();
         String[] modifiedValues = new String[checkValues.length];
         for (int i = 0; i < checkValues.length; i++) {
             // first, check if this is a fielded search
             String checkValue = checkValues[i];
-            if (checkValue.contains(":")) {
-                for (String psField : aliases.keySet()) {
-                    if (checkValue.contains(psField + ":")) {
-                        Pattern p = Pattern.compile("\\b" + psField + ":([\\w]+)\\b");
-                        Matcher m = p.matcher(checkValue);
-                        m.reset();
-                        if (!m.find()) {
-                            String[] fieldBits = checkValue.split(psField + ":");
-                            String illegalField = "[Empty Field]";
-                            if (fieldBits.length > 1) {
-                                illegalField = fieldBits[1];
-                                String[] illegalFieldBits = illegalField.split("\\s");
-                                illegalField = illegalFieldBits[0];
-                            }
-                            String warning = "Collection \"" + illegalField + "\" is not well-formed; " +
-                                    "aliases may contain only alphanumberic characters and the \"_\" character.";
-                            throw new SolrException(SolrException.ErrorCode.NOT_FOUND, warning);
-                        }
-                        m.reset();
-                        while (m.find()) {
-                            String all = checkValue.substring(m.start(), m.end());
-                            String[] bits = all.split(":");
-                            String collectionName = bits[1];
-                            HashMap<String, String> themeAliases = aliases.get(psField);
-                            if (themeAliases.containsKey(collectionName)) {
-                                String fullQuery = themeAliases.get(collectionName);
-                                checkValue = checkValue.replaceAll(
-                                        "\\b" + psField + ":" + collectionName + "\\b", fullQuery);
-                            } else {
-                                String msg = "Collection \"" + collectionName + "\" not defined in " +
-                                        aliasConfig.getConfigFilename();
-                                throw new SolrException(SolrException.ErrorCode.NOT_FOUND, msg);
-                            }
-                        }
+            if (hasPseudofield(aliasConfig, checkValue)) {
+                String cacheKey = cacheFilters ? CACHE_FILTERS_KEY_PREFIX + checkValue : checkValue;
+                String expanded = expansionCache.get(cacheKey, aliasConfig);
+                if (expanded == null) {
+                    expansionCache.expanded();
+                    List<String> dependencies = new ArrayList<>();
+                    expanded = expandValue(aliasConfig, checkValue, cacheFilters, dependencies);
+                    if (!dependencies.isEmpty()) {
+                        expansionCache.put(cacheKey, expanded, dependencies, aliasConfig, epoch);
                     }
                 }
+                checkValue = expanded;
             }
             modifiedValues[i] = checkValue;
         }
@@ -132,6 +512,173 @@ public class QueryAliasing {
         return modifiedValues;
     }
 
+    /*
+     * Expands the pseudofields in a single q or fq value, adding the pseudofield:alias key of each
+     * expanded alias to the dependencies.
+     */
+    private static String expandValue(AliasConfig aliasConfig, String checkValue, boolean cacheFilters,
+                                      List<String> dependencies) {
+        Map<String, AliasDictionary> aliases = aliasConfig.getAliases();
+        for (Map.Entry<String, AliasDictionary> fieldAliases : aliases.entrySet()) {
+            String psField = fieldAliases.getKey();
+            if (containsPseudofield(checkValue, psField)) {
+                Matcher m = aliasPattern(psField).matcher(checkValue);
+                if (!m.find()) {
+                    String[] fieldBits = checkValue.split(psField + ":");
+                    String illegalField = "[Empty Field]";
+                    if (fieldBits.length > 1) {
+                        illegalField = fieldBits[1];
+                        String[] illegalFieldBits = illegalField.split("\\s");
+                        illegalField = illegalFieldBits[0];
+                    }
+                    String warning = "Collection \"" + illegalField + "\" is not well-formed; " +
+                            "aliases may contain only alphanumberic characters, the \"_\" character " +
+                            "and the wildcards \"*\" and \"?\".";
+                    throw new SolrException(SolrException.ErrorCode.NOT_FOUND, warning);
+                }
+                // a group, e.g. collection:(a OR b), is expanded as a whole, so the matcher is restarted after it
+                StringBuilder sb = new StringBuilder();
+                int last = 0;
+                do {
+                    sb.append(checkValue, last, m.start());
+                    if (m.group(1) != null) {
+                        String collectionName = m.group(1);
+                        sb.append(expandAlias(aliasConfig, psField, fieldAliases.getValue(),
+                                collectionName, cacheFilters));
+                        dependencies.add(psField + ":" + collectionName);
+                        last = m.end();
+                    } else {
+                        int close = closingParenthesis(checkValue, m.end() - 1);
+                        sb.append(expandGroup(aliasConfig, psField, fieldAliases.getValue(),
+                                checkValue.substring(m.end(), close), cacheFilters, dependencies));
+                        last = close + 1;
+                    }
+                } while (last < checkValue.length() && m.find(last));
+                sb.append(checkValue, last, checkValue.length());
+                checkValue = sb.toString();
+            }
+        }
+        return checkValue;
+    }
+
+    private static Pattern aliasPattern(String psField) {
+        Pattern pattern = aliasPatterns.get(psField);
+        if (pattern == null) {
+            pattern = aliasPatterns.computeIfAbsent(psField,
+                    f -> Pattern.compile("\\b" + Pattern.quote(f) + ":(?:([\\w*?]+)|\\()"));
+        }
+        return pattern;
+    }
+
+    private static int closingParenthesis(String value, int open) {
+        int depth = 0;
+        for (int i = open; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        String msg = "Collection group \"" + value.substring(open) + "\" is missing a closing parenthesis";
+        throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, msg);
+    }
+
+    /*
+     * Expands a group of aliases combined with AND, OR and NOT, e.g. collection:(a OR b -c). If cacheFilters
+     * is set the group is parsed by the {@link AliasQParserPlugin} into set operations over the cached
+     * documents of the aliases, otherwise into a boolean combination of the alias queries.
+     */
+    private static String expandGroup(AliasConfig aliasConfig, String psField, AliasDictionary dictionary,
+                                      String group, boolean cacheFilters, List<String> dependencies) {
+        AliasExpression expression;
+        try {
+            expression = AliasExpression.parse(group);
+        } catch (SyntaxError e) {
+            throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, e.getMessage(), e);
+        }
+        Map<String, String> queries = new HashMap<>();
+        for (String alias : expression.getAliases()) {
+            queries.put(alias, expandAlias(aliasConfig, psField, dictionary, alias, cacheFilters));
+            dependencies.add(psField + ":" + alias);
+        }
+        if (cacheFilters) {
+            return aliasReference(psField, "'" + expression + "'");
+        }
+        return expression.toQueryString(queries::get);
+    }
+
+    /*
+     * Expands a single alias, or an alias pattern to the disjunction of the matching aliases.
+     */
+    private static String expandAlias(AliasConfig aliasConfig, String psField, AliasDictionary dictionary,
+                                      String collectionName, boolean cacheFilters) {
+        if (!AliasDictionary.isPattern(collectionName)) {
+            String query = dictionary.get(collectionName);
+            if (query == null) {
+                throw undefinedAlias(aliasConfig, dictionary, collectionName);
+            }
+            return cacheFilters ? aliasReference(psField, collectionName) : query;
+        }
+
+        List<String> matches = dictionary.match(collectionName);
+        if (matches.isEmpty()) {
+            String msg = "No collections matching \"" + collectionName + "\" defined in " +
+                    aliasConfig.getConfigFilename();
+            throw new SolrException(SolrException.ErrorCode.NOT_FOUND, msg);
+        }
+        checkPatternMatches(psField, collectionName, matches);
+        if (cacheFilters) {
+            // the alias query parser expands the pattern itself
+            return aliasReference(psField, collectionName);
+        }
+        StringBuilder sb = new StringBuilder("(");
+        for (String match : matches) {
+            if (sb.length() > 1) {
+                sb.append(" OR ");
+            }
+            sb.append('(').append(dictionary.get(match)).append(')');
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * Rejects a pattern matching more aliases than a boolean query may have clauses, as the disjunction of the
+     * matching aliases would otherwise only fail when parsed, or be searched with more clauses than the limit.
+     *
+     * @param matches the aliases matching the pattern
+     */
+    public static void checkPatternMatches(String psField, String pattern, List<String> matches) {
+        if (matches.size() > BooleanQuery.getMaxClauseCount()) {
+            String msg = "Collection pattern \"" + psField + ":" + pattern + "\" matches " + matches.size()
+                    + " collections, more than the maximum of " + BooleanQuery.getMaxClauseCount() + " clauses";
+            throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, msg);
+        }
+    }
+
+    /**
+     * @return the exception for an undefined alias, suggesting the closest defined aliases
+     */
+    public static SolrException undefinedAlias(AliasConfig aliasConfig, AliasDictionary dictionary, String alias) {
+        StringBuilder msg = new StringBuilder("Collection \"").append(alias).append("\" not defined in ")
+                .append(aliasConfig.getConfigFilename());
+        List<String> suggestions = dictionary.suggest(alias, MAX_SUGGESTIONS);
+        if (!suggestions.isEmpty()) {
+            msg.append("; did you mean ");
+            for (int i = 0; i < suggestions.size(); i++) {
+                if (i > 0) {
+                    msg.append(i == suggestions.size() - 1 ? " or " : ", ");
+                }
+                msg.append('"').append(suggestions.get(i)).append('"');
+            }
+            msg.append('?');
+        }
+        return new SolrException(SolrException.ErrorCode.NOT_FOUND, msg.toString());
+    }
+
+    private static String aliasReference(String psField, String alias) {
+        return "_query_:\"{!" + AliasQParserPlugin.NAME + " f=" + psField + " v=" + alias + "}\"";
+    }
 
     // for debugging purposes
     private static String outputParams(SolrParams params) {
@@ -0,0 +1,159 @@
+package org.apache.solr.handler.component;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.AliasRamUsage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Captures a sample of the aliased requests, with their expanded parameters and expansion time, for offline
+ * replay and benchmarking.
+ *
+ * The samples are written to a fixed size ring buffer without locking: each writer claims a sequence number and
+ * overwrites the oldest slot, so request threads never wait for each other or for a dump. The parameters are
+ * converted to query strings when the sample is recorded, so a sample does not keep the request's parameters
+ * from being collected, or see the changes made to them after the expansion. Only the sampled requests pay for
+ * the conversion: when the sampling rate is zero, the default, the cost to a request is a single volatile read.
+ */
+class QueryCapture
+        implements Accountable {
+
+    static final int DEFAULT_CAPACITY = Integer.getInteger("solr.alias.captureCapacity", 1024);
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(QueryCapture.class)
+            + 2 * RamUsageEstimator.shallowSizeOfInstance(AtomicLong.class)
+            + RamUsageEstimator.shallowSizeOfInstance(AtomicReferenceArray.class);
+
+    private final AtomicReferenceArray<Sample> samples;
+    private final int mask;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong samplesRamBytesUsed = new AtomicLong();
+    private volatile double rate;
+
+    /**
+     * @param capacity the number of samples kept, rounded up to a power of two
+     */
+    QueryCapture(int capacity) {
+        int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        samples = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * @param rate the proportion of requests captured, from 0 (disabled) to 1 (every request)
+     */
+    void setRate(double rate) {
+        this.rate = Math.max(0, Math.min(1, rate));
+    }
+
+    double getRate() {
+        return rate;
+    }
+
+    int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return true if the current request should be captured
+     */
+    boolean sample() {
+        double rate = this.rate;
+        return rate > 0 && (rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate);
+    }
+
+    /**
+     * @param params         the parameters of the request
+     * @param expandedParams the expanded parameters, which may be the same instance if nothing was expanded
+     */
+    void record(SolrParams params, SolrParams expandedParams, long expansionNanos) {
+        String query = params.toQueryString();
+        String expandedQuery = expandedParams == params ? query : expandedParams.toQueryString();
+        long seq = sequence.getAndIncrement();
+        Sample sample = new Sample(seq, System.currentTimeMillis(), query, expandedQuery, expansionNanos);
+        samplesRamBytesUsed.addAndGet(sample.ramBytesUsed);
+        Sample overwritten = samples.getAndSet((int) (seq & mask), sample);
+        if (overwritten != null) {
+            samplesRamBytesUsed.addAndGet(-overwritten.ramBytesUsed);
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < samples.length(); i++) {
+            Sample cleared = samples.getAndSet(i, null);
+            if (cleared != null) {
+                samplesRamBytesUsed.addAndGet(-cleared.ramBytesUsed);
+            }
+        }
+    }
+
+    /**
+     * @return the heap used by the buffer and the captured query strings
+     */
+    @Override
+    public long ramBytesUsed() {
+        return BASE_RAM_BYTES_USED + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+                + (long) RamUsageEstimator.NUM_BYTES_OBJECT_REF * samples.length()) + samplesRamBytesUsed.get();
+    }
+
+    /**
+     * Returns the captured samples, oldest first. Each sample contains the raw and expanded parameters as query
+     * strings, which can be replayed by appending them to the handler URL.
+     */
+    NamedList<Object> dump() {
+        long end = sequence.get();
+        List<NamedList<Object>> dumped = new ArrayList<>();
+        for (long seq = Math.max(0, end - samples.length()); seq < end; seq++) {
+            Sample sample = samples.get((int) (seq & mask));
+            // a slot may be empty, or already overwritten, if its writer has not yet completed
+            if (sample != null && sample.seq == seq) {
+                dumped.add(sample.toNamedList());
+            }
+        }
+        NamedList<Object> capture = new SimpleOrderedMap<>();
+        capture.add("rate", rate);
+        capture.add("capacity", getCapacity());
+        capture.add("captured", end);
+        capture.add("samples", dumped);
+        return capture;
+    }
+
+    private static class Sample {
+        private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(Sample.class);
+
+        private final long seq;
+        private final long timestamp;
+        private final String query;
+        private final String expandedQuery;
+        private final long expansionNanos;
+        private final long ramBytesUsed;
+
+        private Sample(long seq, long timestamp, String query, String expandedQuery, long expansionNanos) {
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.query = query;
+            this.expandedQuery = expandedQuery;
+            this.expansionNanos = expansionNanos;
+            this.ramBytesUsed = BASE_RAM_BYTES_USED + AliasRamUsage.sizeOf(query)
+                    + (expandedQuery == query ? 0 : AliasRamUsage.sizeOf(expandedQuery));
+        }
+
+        private NamedList<Object> toNamedList() {
+            NamedList<Object> sample = new SimpleOrderedMap<>();
+            sample.add("seq", seq);
+            sample.add("timestamp", timestamp);
+            sample.add("expansionNanos", expansionNanos);
+            sample.add("params", query);
+            sample.add("expandedParams", expandedQuery);
+            return sample;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package org.apache.solr.search;
+
+import org.apache.lucene.util.FixedBitSet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A boolean expression of aliases, as in collection:(a OR b) or collection:(music_* AND NOT (jazz OR folk)).
+ *
+ * The expression supports the operators AND (&amp;&amp;), OR (||) and NOT (!, -), and parentheses. As in the
+ * standard query parser, adjacent clauses are ORed and negated clauses are excluded from the clauses they are
+ * ORed with, so (a b -c) matches the documents of a or b which are not in c.
+ *
+ * An expression can be evaluated as set operations over the documents of its aliases, or written as a query
+ * string combining the alias queries.
+ */
+public abstract class AliasExpression {
+
+    /**
+     * Returns the documents matching an alias, or alias pattern, in the current segment.
+     * The returned set is modified by the evaluation, so must not be shared.
+     */
+    public interface AliasDocs {
+        FixedBitSet get(String alias)
+                throws IOException;
+    }
+
+    /**
+     * Returns the query string of an alias, or alias pattern.
+     */
+    public interface AliasQuery {
+        String get(String alias);
+    }
+
+    private AliasExpression() {
+    }
+
+    /**
+     * @param maxDoc the number of documents in the segment
+     */
+    public abstract FixedBitSet evaluate(AliasDocs docs, int maxDoc)
+            throws IOException;
+
+    /**
+     * @return a query string, parseable by the standard query parser, matching the same documents
+     */
+    public abstract String toQueryString(AliasQuery queries);
+
+    /**
+     * @return the aliases, and alias patterns, used by the expression
+     */
+    public Set<String> getAliases() {
+        Set<String> aliases = new TreeSet<>();
+        addAliases(aliases);
+        return aliases;
+    }
+
+    /**
+     * @return true if the expression excludes the documents of any alias
+     */
+    public abstract boolean hasNegation();
+
+    abstract void addAliases(Set<String> aliases);
+
+    /**
+     * @return true if the value is an alias, or alias pattern, rather than an expression
+     */
+    public static boolean isAlias(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (!isAliasChar(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAliasChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '*' || c == '?';
+    }
+
+    public static AliasExpression parse(String expression)
+            throws SyntaxError {
+        Parser parser = new Parser(expression);
+        AliasExpression parsed = parser.parseOr();
+        if (parser.peek() != null) {
+            throw new SyntaxError("Unexpected \"" + parser.peek() + "\" in alias expression: " + expression);
+        }
+        return parsed;
+    }
+
+    private static FixedBitSet all(int maxDoc) {
+        FixedBitSet bits = new FixedBitSet(maxDoc);
+        bits.set(0, maxDoc);
+        return bits;
+    }
+
+    private static class Alias
+            extends AliasExpression {
+        private final String alias;
+
+        private Alias(String alias) {
+            this.alias = alias;
+        }
+
+        @Override
+        public FixedBitSet evaluate(AliasDocs docs, int maxDoc)
+                throws IOException {
+            return docs.get(alias);
+        }
+
+        @Override
+        public String toQueryString(AliasQuery queries) {
+            return "(" + queries.get(alias) + ")";
+        }
+
+        @Override
+        public boolean hasNegation() {
+            return false;
+        }
+
+        @Override
+        void addAliases(Set<String> aliases) {
+            aliases.add(alias);
+        }
+
+        @Override
+        public String toString() {
+            return alias;
+        }
+    }
+
+    private static class Not
+            extends AliasExpression {
+        private final AliasExpression clause;
+
+        private Not(AliasExpression clause) {
+            this.clause = clause;
+        }
+
+        @Override
+        public FixedBitSet evaluate(AliasDocs docs, int maxDoc)
+                throws IOException {
+            FixedBitSet bits = clause.evaluate(docs, maxDoc);
+            bits.flip(0, maxDoc);
+            return bits;
+        }
+
+        @Override
+        public String toQueryString(AliasQuery queries) {
+            return "(*:* NOT " + clause.toQueryString(queries) + ")";
+        }
+
+        @Override
+        public boolean hasNegation() {
+            return true;
+        }
+
+        @Override
+        void addAliases(Set<String> aliases) {
+            clause.addAliases(aliases);
+        }
+
+        @Override
+        public String toString() {
+            return "NOT " + clause;
+        }
+    }
+
+    private static class And
+            extends AliasExpression {
+        private final List<AliasExpression> clauses;
+
+        private And(List<AliasExpression> clauses) {
+            this.clauses = clauses;
+        }
+
+        @Override
+        public FixedBitSet evaluate(AliasDocs docs, int maxDoc)
+                throws IOException {
+            FixedBitSet bits = null;
+            for (AliasExpression clause : clauses) {
+                if (!(clause instanceof Not)) {
+                    FixedBitSet clauseBits = clause.evaluate(docs, maxDoc);
+                    if (bits == null) {
+                        bits = clauseBits;
+                    } else {
+                        bits.and(clauseBits);
+                    }
+                }
+            }
+            if (bits == null) {
+                bits = all(maxDoc);
+            }
+            for (AliasExpression clause : clauses) {
+                if (clause instanceof Not) {
+                    bits.andNot(((Not) clause).clause.evaluate(docs, maxDoc));
+                }
+            }
+            return bits;
+        }
+
+        @Override
+        public String toQueryString(AliasQuery queries) {
+            StringBuilder sb = new StringBuilder("(");
+            if (clauses.stream().allMatch(clause -> clause instanceof Not)) {
+                sb.append("*:*");
+            }
+            for (AliasExpression clause : clauses) {
+                if (sb.length() > 1) {
+                    sb.append(" AND ");
+                }
+                if (clause instanceof Not) {
+                    sb.append("NOT ").append(((Not) clause).clause.toQueryString(queries));
+                } else {
+                    sb.append(clause.toQueryString(queries));
+                }
+            }
+            return sb.append(')').toString();
+        }
+
+        @Override
+        public boolean hasNegation() {
+            return clauses.stream().anyMatch(AliasExpression::hasNegation);
+        }
+
+        @Override
+        void addAliases(Set<String> aliases) {
+            for (AliasExpression clause : clauses) {
+                clause.addAliases(aliases);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("(");
+            for (AliasExpression clause : clauses) {
+                sb.append(sb.length() > 1 ? " AND " : "").append(clause);
+            }
+            return sb.append(')').toString();
+        }
+    }
+
+    private static class Or
+            extends AliasExpression {
+        private final List<AliasExpression> clauses;
+        private final List<AliasExpression> excluded;
+
+        private Or(List<AliasExpression> clauses, List<AliasExpression> excluded) {
+            this.clauses = clauses;
+            this.excluded = excluded;
+        }
+
+        @Override
+        public FixedBitSet evaluate(AliasDocs docs, int maxDoc)
+                throws IOException {
+            FixedBitSet bits;
+            if (clauses.isEmpty()) {
+                bits = all(maxDoc);
+            } else {
+                bits = clauses.get(0).evaluate(docs, maxDoc);
+                for (int i = 1; i < clauses.size(); i++) {
+                    bits.or(clauses.get(i).evaluate(docs, maxDoc));
+                }
+            }
+            for (AliasExpression clause : excluded) {
+                bits.andNot(clause.evaluate(docs, maxDoc));
+            }
+            return bits;
+        }
+
+        @Override
+        public String toQueryString(AliasQuery queries) {
+            StringBuilder sb = new StringBuilder("(");
+            if (clauses.isEmpty()) {
+                sb.append("*:*");
+            }
+            for (AliasExpression clause : clauses) {
+                if (sb.length() > 1) {
+                    sb.append(" OR ");
+                }
+                sb.append(clause.toQueryString(queries));
+            }
+            for (AliasExpression clause : excluded) {
+                sb.append(" -").append(clause.toQueryString(queries));
+            }
+            return sb.append(')').toString();
+        }
+
+        @Override
+        public boolean hasNegation() {
+            return !excluded.isEmpty() || clauses.stream().anyMatch(AliasExpression::hasNegation);
+        }
+
+        @Override
+        void addAliases(Set<String> aliases) {
+            for (AliasExpression clause : clauses) {
+                clause.addAliases(aliases);
+            }
+            for (AliasExpression clause : excluded) {
+                clause.addAliases(aliases);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("(");
+            for (AliasExpression clause : clauses) {
+                sb.append(sb.length() > 1 ? " OR " : "").append(clause);
+            }
+            for (AliasExpression clause : excluded) {
+                sb.append(sb.length() > 1 ? " " : "").append("-").append(clause);
+            }
+            return sb.append(')').toString();
+        }
+    }
+
+    private static class Parser {
+        private final String expression;
+        private final List<String> tokens = new ArrayList<>();
+        private int next;
+
+        private Parser(String expression)
+                throws SyntaxError {
+            this.expression = expression;
+            int i = 0;
+            while (i < expression.length()) {
+                char c = expression.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(' || c == ')' || c == '!' || c == '-') {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                } else if (expression.startsWith("&&", i) || expression.startsWith("||", i)) {
+                    tokens.add(expression.substring(i, i + 2));
+                    i += 2;
+                } else if (isAliasChar(c)) {
+                    int start = i;
+                    while (i < expression.length() && isAliasChar(expression.charAt(i))) {
+                        i++;
+                    }
+                    tokens.add(expression.substring(start, i));
+                } else {
+                    throw new SyntaxError("Unexpected \"" + c + "\" in alias expression: " + expression);
+                }
+            }
+        }
+
+        private String peek() {
+            return next < tokens.size() ? tokens.get(next) : null;
+        }
+
+        private AliasExpression parseOr()
+                throws SyntaxError {
+            List<AliasExpression> clauses = new ArrayList<>();
+            List<AliasExpression> excluded = new ArrayList<>();
+            do {
+                if ("OR".equals(peek()) || "||".equals(peek())) {
+                    next++;
+                }
+                AliasExpression clause = parseAnd();
+                if (clause instanceof Not) {
+                    excluded.add(((Not) clause).clause);
+                } else {
+                    clauses.add(clause);
+                }
+            } while (peek() != null && !")".equals(peek()));
+
+            if (clauses.size() == 1 && excluded.isEmpty()) {
+                return clauses.get(0);
+            }
+            if (clauses.isEmpty() && excluded.size() == 1) {
+                return new Not(excluded.get(0));
+            }
+            return new Or(clauses, excluded);
+        }
+
+        private AliasExpression parseAnd()
+                throws SyntaxError {
+            List<AliasExpression> clauses = new ArrayList<>(Collections.singletonList(parseNot()));
+            while ("AND".equals(peek()) || "&&".equals(peek())) {
+                next++;
+                clauses.add(parseNot());
+            }
+            return clauses.size() == 1 ? clauses.get(0) : new And(clauses);
+        }
+
+        private AliasExpression parseNot()
+                throws SyntaxError {
+            String token = peek();
+            if ("NOT".equals(token) || "!".equals(token) || "-".equals(token)) {
+                next++;
+                return new Not(parseNot());
+            }
+            if ("(".equals(token)) {
+                next++;
+                AliasExpression clause = parseOr();
+                if (!")".equals(peek())) {
+                    throw new SyntaxError("Missing \")\" in alias expression: " + expression);
+                }
+                next++;
+                return clause;
+            }
+            if (token == null || !isAlias(token) || "AND".equals(token) || "OR".equals(token)) {
+                throw new SyntaxError("Expected an alias at \"" + token + "\" in alias expression: " + expression);
+            }
+            next++;
+            return new Alias(token);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.apache.solr.search;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BitSetIterator;
+import org.apache.lucene.util.FixedBitSet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A constant score query matching the documents of an {@link AliasExpression}, e.g. collection:(a OR b -c).
+ *
+ * The documents of each alias are taken from the per segment sets cached by its {@link AliasFilterQuery},
+ * so the expression is evaluated as unions, intersections and differences of bit sets rather than by executing
+ * the alias queries combined into a boolean query.
+ */
+public class AliasExpressionQuery
+        extends ExtendedQueryBase {
+
+    private final String field;
+    private final AliasExpression expression;
+    private final Map<String, List<AliasFilterQuery>> aliases;
+
+    /**
+     * @param field      the alias pseudofield
+     * @param expression the parsed alias expression
+     * @param aliases    the filters of the aliases matched by each alias, or alias pattern, of the expression
+     */
+    public AliasExpressionQuery(String field, AliasExpression expression, Map<String, List<AliasFilterQuery>> aliases) {
+        this.field = field;
+        this.expression = expression;
+        this.aliases = aliases;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores)
+            throws IOException {
+        Map<String, List<AliasFilterQuery.SegmentDocs>> aliasDocs = new HashMap<>();
+        for (Map.Entry<String, List<AliasFilterQuery>> alias : aliases.entrySet()) {
+            List<AliasFilterQuery.SegmentDocs> segmentDocs = new ArrayList<>(alias.getValue().size());
+            for (AliasFilterQuery filter : alias.getValue()) {
+                segmentDocs.add(filter.segmentDocs(searcher));
+            }
+            aliasDocs.put(alias.getKey(), segmentDocs);
+        }
+        return new ConstantScoreWeight(this) {
+            @Override
+            public Scorer scorer(LeafReaderContext context)
+                    throws IOException {
+                int maxDoc = context.reader().maxDoc();
+                FixedBitSet bits = expression.evaluate(alias -> {
+                    FixedBitSet docs = new FixedBitSet(maxDoc);
+                    for (AliasFilterQuery.SegmentDocs segmentDocs : aliasDocs.get(alias)) {
+                        DocIdSetIterator iterator = segmentDocs.get(context).iterator();
+                        if (iterator != null) {
+                            docs.or(iterator);
+                        }
+                    }
+                    return docs;
+                }, maxDoc);
+                int cardinality = bits.cardinality();
+                if (cardinality == 0) {
+                    return null;
+                }
+                return new ConstantScoreScorer(this, score(), new BitSetIterator(bits, cardinality));
+            }
+        };
+    }
+
+    @Override
+    public String toString(String defaultField) {
+        return field + ":" + expression;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return sameClassAs(other) &&
+                field.equals(((AliasExpressionQuery) other).field) &&
+                expression.toString().equals(((AliasExpressionQuery) other).expression.toString()) &&
+                aliases.equals(((AliasExpressionQuery) other).aliases);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * classHash() + toString().hashCode()) + aliases.hashCode();
+    }
+}
@@ -0,0 +1,373 @@
+package org.apache.solr.search;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentInfo;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.BitDocIdSet;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.core.AliasRamUsage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the documents matching each expanded alias, one DocIdSet per (alias, segment core).
+ *
+ * Entries are keyed on the segment core cache key rather than the top level reader, so they survive commits
+ * and only the segments created since the last searcher need to be computed. Deleted documents are not
+ * removed from the cached sets, the live docs are applied when the filter is scored. The entries for a
+ * segment are dropped when its core is closed, i.e. when the segment has been merged away.
+ *
+ * If the cache has an {@link AliasFilterStore} the entries of each segment are written to disk in the background,
+ * and mapped from the file the first time the segment is searched, e.g. after a restart.
+ */
+public class AliasFilterCache
+        implements Accountable {
+
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(AliasFilterCache.class)
+            + AliasRamUsage.HASH_MAP_BYTES;
+    // the segment, its entry map and its entry in the segments map; the SegmentInfo belongs to the reader
+    private static final long SEGMENT_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(Segment.class)
+            + AliasRamUsage.HASH_MAP_BYTES + AliasRamUsage.HASH_ENTRY_BYTES;
+    private static final long ENTRY_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(Entry.class)
+            + AliasRamUsage.HASH_ENTRY_BYTES;
+
+    private final Map<Object, Segment> segments = new ConcurrentHashMap<>();
+    private final AliasFilterStore store;
+    private final Runnable grown;
+    private final AtomicLong ramBytesUsed = new AtomicLong(BASE_RAM_BYTES_USED);
+
+    public AliasFilterCache() {
+        this(null);
+    }
+
+    public AliasFilterCache(AliasFilterStore store) {
+        this(store, () -> {
+        });
+    }
+
+    /**
+     * @param store the store the cached entries are persisted to, or null if they are only held in memory
+     * @param grown run each time entries are added, e.g. to check the heap budget of the caches
+     */
+    public AliasFilterCache(AliasFilterStore store, Runnable grown) {
+        this.store = store;
+        this.grown = grown;
+        if (store != null) {
+            store.start(this::persist);
+        }
+    }
+
+    /**
+     * Returns the cached documents for the alias in the given segment, or null if they have not been computed.
+     *
+     * @param context the segment
+     * @param key     the alias key, see {@link AliasFilterQuery#getKey()}
+     * @param source  the alias query the cached set must have been computed from
+     */
+    public DocIdSet get(LeafReaderContext context, String key, String source) {
+        Entry entry = segment(context.reader()).entries.get(key);
+        if (entry == null || !entry.matches(source)) {
+            return null;
+        }
+        entry.lastUsed = System.nanoTime();
+        return entry.docs;
+    }
+
+    public void put(LeafReaderContext context, String key, String source, DocIdSet docs) {
+        Segment segment = segment(context.reader());
+        Entry entry = new Entry(source, docs);
+        ramBytesUsed.addAndGet(ramBytesUsed(key, entry));
+        Entry replaced = segment.entries.put(key, entry);
+        if (replaced != null) {
+            ramBytesUsed.addAndGet(-ramBytesUsed(key, replaced));
+        }
+        segment.dirty = true;
+        grown.run();
+    }
+
+    private static long ramBytesUsed(String key, Entry entry) {
+        return ENTRY_RAM_BYTES_USED + AliasRamUsage.sizeOf(key) + AliasRamUsage.sizeOf(entry.source)
+                + entry.docs.ramBytesUsed();
+    }
+
+    private Segment segment(LeafReader reader) {
+        Object coreKey = reader.getCoreCacheKey();
+        Segment segment = segments.get(coreKey);
+        if (segment == null) {
+            segment = segments.computeIfAbsent(coreKey,
+                    k -> new Segment(AliasFilterStore.segmentInfo(reader), reader.maxDoc()));
+        }
+        if (!segment.loaded) {
+            load(segment, reader);
+        }
+        return segment;
+    }
+
+    /*
+     * Only one thread reads the stored entries of a segment, under the lock of the segment, so the threads searching
+     * other segments are not blocked by the read.
+     */
+    private void load(Segment segment, LeafReader reader) {
+        synchronized (segment) {
+            if (segment.loaded) {
+                return;
+            }
+            long bytes = SEGMENT_RAM_BYTES_USED;
+            if (store != null && segment.info != null) {
+                Map<String, Entry> stored = store.map(segment.info, segment.maxDoc, segment.inputs);
+                bytes += ramBytesUsed(stored);
+                segment.entries.putAll(stored);
+                segment.persistedHash = stored.isEmpty() ? null : store.getConfigHash();
+            }
+            ramBytesUsed.addAndGet(bytes);
+            reader.addCoreClosedListener(coreKey -> closed(coreKey, segment));
+            segment.loaded = true;
+        }
+        grown.run();
+    }
+
+    private void closed(Object coreKey, Segment segment) {
+        if (segments.remove(coreKey, segment)) {
+            ramBytesUsed.addAndGet(-SEGMENT_RAM_BYTES_USED - ramBytesUsed(segment.entries));
+        }
+        // no searcher uses the segment any more, so its mapped filters can be unmapped
+        IOUtils.closeWhileHandlingException(segment.inputs);
+    }
+
+    private static long ramBytesUsed(Map<String, Entry> entries) {
+        long bytes = 0;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            bytes += ramBytesUsed(entry.getKey(), entry.getValue());
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of documents, including deleted documents, matching the alias in all the segments,
+     * or -1 if the alias has not been computed for every segment.
+     *
+     * @param leaves the segments of the searcher
+     * @param key    the alias key, see {@link AliasFilterQuery#getKey()}
+     * @param source the alias query the cached sets must have been computed from
+     */
+    public long docCount(List<LeafReaderContext> leaves, String key, String source) {
+        long count = 0;
+        for (LeafReaderContext context : leaves) {
+            Segment segment = segments.get(context.reader().getCoreCacheKey());
+            Entry entry = segment == null ? null : segment.entries.get(key);
+            if (entry == null || !entry.matches(source)) {
+                return -1;
+            }
+            count += entry.count;
+        }
+        return count;
+    }
+
+    /**
+     * Removes the cached documents of the alias from every segment, including those parsed with different
+     * request params, see {@link AliasFilterQuery#key}.
+     *
+     * @param key the key of the alias parsed without params, i.e. field:alias
+     * @return the number of segments from which the alias was removed
+     */
+    public int invalidate(String key) {
+        String variants = key + "?";
+        int removed = 0;
+        for (Segment segment : segments.values()) {
+            boolean changed = false;
+            for (Iterator<Map.Entry<String, Entry>> it = segment.entries.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Entry> entry = it.next();
+                if (entry.getKey().equals(key) || entry.getKey().startsWith(variants)) {
+                    it.remove();
+                    ramBytesUsed.addAndGet(-ramBytesUsed(entry.getKey(), entry.getValue()));
+                    changed = true;
+                }
+            }
+            if (changed) {
+                segment.dirty = true;
+                // the file is rewritten from the entries in memory, so does not keep the invalidated entries
+                segment.evicted = false;
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        return segments.size();
+    }
+
+    public void clear() {
+        segments.clear();
+        ramBytesUsed.set(BASE_RAM_BYTES_USED);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return ramBytesUsed.get();
+    }
+
+    /**
+     * Removes the least recently used entries, from any segment, until the cache uses at most the given
+     * number of bytes. The persisted entries are not removed, so are read again if the segment is reopened,
+     * and are kept when the segment is written again.
+     *
+     * @return the number of entries removed
+     */
+    public int evict(long maxRamBytesUsed) {
+        if (ramBytesUsed.get() <= maxRamBytesUsed) {
+            return 0;
+        }
+        List<SegmentEntry> entries = new ArrayList<>();
+        for (Segment segment : segments.values()) {
+            for (Map.Entry<String, Entry> entry : segment.entries.entrySet()) {
+                entries.add(new SegmentEntry(segment, entry.getKey(), entry.getValue()));
+            }
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.entry.lastUsed));
+        int removed = 0;
+        for (SegmentEntry entry : entries) {
+            if (ramBytesUsed.get() <= maxRamBytesUsed) {
+                break;
+            }
+            if (entry.segment.entries.remove(entry.key, entry.entry)) {
+                entry.segment.evicted = true;
+                ramBytesUsed.addAndGet(-ramBytesUsed(entry.key, entry.entry));
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Stops the background writes, writing the entries changed since the last write.
+     */
+    public void close() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    /**
+     * Writes the segments whose entries have changed, or were written for a previous alias config.
+     *
+     * @param leaves the segments to write, or null to write every segment
+     */
+    void persist(List<LeafReaderContext> leaves) {
+        String configHash = store.getConfigHash();
+        Collection<Segment> persisted = segments.values();
+        if (leaves != null) {
+            persisted = new ArrayList<>(leaves.size());
+            for (LeafReaderContext context : leaves) {
+                Segment segment = segments.get(context.reader().getCoreCacheKey());
+                if (segment != null) {
+                    persisted.add(segment);
+                }
+            }
+        }
+        for (Segment segment : persisted) {
+            if (segment.info == null || segment.entries.isEmpty()
+                    || (!segment.dirty && configHash.equals(segment.persistedHash))) {
+                continue;
+            }
+            segment.dirty = false;
+            // the evicted entries are only on disk, unless they were written for a previous config
+            boolean merge = segment.evicted && configHash.equals(segment.persistedHash);
+            if (!merge) {
+                segment.evicted = false;
+            }
+            Map<String, Entry> entries = new HashMap<>(segment.entries);
+            try {
+                if (merge) {
+                    store.read(segment.info, segment.maxDoc).forEach(entries::putIfAbsent);
+                }
+                store.write(segment.info, segment.maxDoc, entries, configHash);
+                segment.persistedHash = configHash;
+            } catch (IOException e) {
+                segment.dirty = true;
+                log.warn("Failed to write the alias filters of segment {}", segment.info.name, e);
+            }
+        }
+    }
+
+    private static class Segment {
+        private final SegmentInfo info;
+        private final int maxDoc;
+        private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        // the file the stored entries are mapped from, closed with the segment
+        private final List<Closeable> inputs = new ArrayList<>(1);
+        // whether the stored entries have been read, see load
+        private volatile boolean loaded;
+        private volatile boolean dirty;
+        // whether the file of the segment may hold entries which have been evicted from memory
+        private volatile boolean evicted;
+        private volatile String persistedHash;
+
+        private Segment(SegmentInfo info, int maxDoc) {
+            this.info = info;
+            this.maxDoc = maxDoc;
+        }
+    }
+
+    private static class SegmentEntry {
+        private final Segment segment;
+        private final String key;
+        private final Entry entry;
+
+        private SegmentEntry(Segment segment, String key, Entry entry) {
+            this.segment = segment;
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+
+    static class Entry {
+        // null for the entries read from an AliasFilterStore, which are checked against the source hash
+        private final String source;
+        final int sourceHash;
+        final DocIdSet docs;
+        final int count;
+        // for the least recently used eviction, so not volatile
+        private long lastUsed = System.nanoTime();
+
+        Entry(String source, DocIdSet docs) {
+            this(source, source.hashCode(), docs,
+                    docs instanceof BitDocIdSet ? ((BitDocIdSet) docs).bits().cardinality() : 0);
+        }
+
+        /**
+         * @param count the number of documents, as stored with the documents
+         */
+        Entry(int sourceHash, DocIdSet docs, int count) {
+            this(null, sourceHash, docs, count);
+        }
+
+        private Entry(String source, int sourceHash, DocIdSet docs, int count) {
+            this.source = source;
+            this.sourceHash = sourceHash;
+            this.docs = docs;
+            this.count = count;
+        }
+
+        private boolean matches(String source) {
+            return this.source != null ? this.source.equals(source) : sourceHash == source.hashCode();
+        }
+    }
+}
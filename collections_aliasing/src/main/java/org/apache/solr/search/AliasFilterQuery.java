@@ -0,0 +1,197 @@
+package org.apache.solr.search;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BitDocIdSet;
+import org.apache.lucene.util.BitSet;
+import org.apache.lucene.util.Bits;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+
+import java.io.IOException;
+
+/**
+ * A constant score query matching the documents of an expanded alias.
+ *
+ * The documents are computed per segment from the parsed alias query and kept in an {@link AliasFilterCache},
+ * so a new searcher only executes the alias query against segments it has not seen before.
+ * When used as a filter with cache=false and a cost of at least 100 the query is executed as a post filter,
+ * checking the cached documents of each segment for the documents matched by the main query.
+ * The alias queries are parsed by the lucene parser, which reads the df, q.op and sow request params, so the
+ * documents are cached separately for each combination of those params, see {@link #key}.
+ */
+public class AliasFilterQuery
+        extends ExtendedQueryBase
+        implements PostFilter {
+
+    /** The request params read when parsing an alias query, so part of the cache key */
+    private static final String[] PARSE_PARAMS = {CommonParams.DF, QueryParsing.OP, QueryParsing.SPLIT_ON_WHITESPACE};
+
+    private final String field;
+    private final String alias;
+    private final String key;
+    private final String source;
+    private final Query query;
+    private final AliasFilterCache cache;
+
+    /**
+     * @param field  the alias pseudofield
+     * @param alias  the alias name
+     * @param key    the cache key, see {@link #key}
+     * @param source the alias query string the query was parsed from
+     * @param query  the parsed alias query
+     * @param cache  the cache for the core being searched
+     */
+    public AliasFilterQuery(String field, String alias, String key, String source, Query query,
+                            AliasFilterCache cache) {
+        this.field = field;
+        this.alias = alias;
+        this.key = key;
+        this.source = source;
+        this.query = query;
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the cache key of an alias parsed with the given request params, i.e. field:alias followed by
+     * the params changing how the query is parsed, if any are set, e.g. collection:art?q.op=AND
+     *
+     * @param params the request params, or null
+     */
+    public static String key(String field, String alias, SolrParams params) {
+        StringBuilder key = null;
+        if (params != null) {
+            for (String name : PARSE_PARAMS) {
+                String value = params.get(name);
+                if (value == null) {
+                    continue;
+                }
+                if (key == null) {
+                    key = new StringBuilder(field).append(':').append(alias).append('?');
+                } else {
+                    key.append('&');
+                }
+                key.append(name).append('=').append(value);
+            }
+        }
+        return key == null ? field + ":" + alias : key.toString();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Query getQuery() {
+        return query;
+    }
+
+    /**
+     * @return the per segment documents of the alias, computed against the searcher where not cached
+     */
+    SegmentDocs segmentDocs(IndexSearcher searcher) {
+        return new SegmentDocs(searcher);
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores)
+            throws IOException {
+        SegmentDocs segmentDocs = new SegmentDocs(searcher);
+        return new ConstantScoreWeight(this) {
+            @Override
+            public Scorer scorer(LeafReaderContext context)
+                    throws IOException {
+                DocIdSetIterator iterator = segmentDocs.get(context).iterator();
+                if (iterator == null) {
+                    return null;
+                }
+                return new ConstantScoreScorer(this, score(), iterator);
+            }
+        };
+    }
+
+    @Override
+    public DelegatingCollector getFilterCollector(IndexSearcher searcher) {
+        SegmentDocs segmentDocs = new SegmentDocs(searcher);
+        return new DelegatingCollector() {
+
+            private Bits bits;
+
+            @Override
+            protected void doSetNextReader(LeafReaderContext context)
+                    throws IOException {
+                super.doSetNextReader(context);
+                bits = segmentDocs.get(context).bits();
+            }
+
+            @Override
+            public void collect(int doc)
+                    throws IOException {
+                if (bits != null && bits.get(doc)) {
+                    super.collect(doc);
+                }
+            }
+        };
+    }
+
+    @Override
+    public String toString(String defaultField) {
+        return field + ":" + alias;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return sameClassAs(other) &&
+                key.equals(((AliasFilterQuery) other).key) &&
+                source.equals(((AliasFilterQuery) other).source) &&
+                query.equals(((AliasFilterQuery) other).query);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * (31 * classHash() + key.hashCode()) + source.hashCode()) + query.hashCode();
+    }
+
+    /**
+     * Gets the alias documents of each segment from the cache, computing those not yet cached.
+     */
+    class SegmentDocs {
+
+        private final IndexSearcher searcher;
+        private Weight weight;
+
+        private SegmentDocs(IndexSearcher searcher) {
+            this.searcher = searcher;
+        }
+
+        // the alias query is only weighted if one of the segments is not cached
+        private synchronized Weight getWeight()
+                throws IOException {
+            if (weight == null) {
+                weight = searcher.createNormalizedWeight(query, false);
+            }
+            return weight;
+        }
+
+        DocIdSet get(LeafReaderContext context)
+                throws IOException {
+            DocIdSet docs = cache.get(context, key, source);
+            if (docs == null) {
+                Scorer scorer = getWeight().scorer(context);
+                if (scorer == null) {
+                    docs = DocIdSet.EMPTY;
+                } else {
+                    docs = new BitDocIdSet(BitSet.of(scorer.iterator(), context.reader().maxDoc()));
+                }
+                cache.put(context, key, source, docs);
+            }
+            return docs;
+        }
+    }
+}
@@ -0,0 +1,508 @@
+package org.apache.solr.search;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentInfo;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.BitDocIdSet;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.SparseFixedBitSet;
+import org.apache.lucene.util.StringHelper;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.util.DefaultSolrThreadFactory;
+import org.apache.solr.util.RefCounted;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Persists the documents of the alias filters of each segment, so they do not have to be computed again after
+ * a restart or replica recovery.
+ *
+ * The filters of a segment are written to a single file in the alias_filters directory beside the index, named
+ * after the segment, its unique id and the hash of the alias config. The file header records the id and hash,
+ * and the footer a checksum, so a file left by a segment which has been replaced, or by a different alias config,
+ * or which has been corrupted, is detected, ignored and deleted. Dense filters are written as the words of their
+ * bit sets, sparse filters as the deltas between their documents.
+ *
+ * When a segment is first searched its file is memory mapped, if the directory is an {@link MMapDirectory} (the
+ * default of 64 bit JVMs), and its dense filters are read from the mapping rather than copied onto the heap. The
+ * mapping is kept open until the segment is closed. The sparse filters, which are small, are read onto the heap.
+ *
+ * The files are written by a single background thread, first once the core has had time to warm up and then
+ * at the same interval, only rewriting the segments whose filters have changed. Files which no longer belong to
+ * a segment of the current searcher are deleted at the same time. Both use the segments of the same searcher,
+ * so the segments of a searcher which is still warming are neither written nor deleted until it is registered.
+ */
+public class AliasFilterStore {
+
+    /** The directory, in the core data directory, the filters are written to */
+    public static final String DIR_NAME = "alias_filters";
+    /** The seconds before the first write and between writes, 0 disables the store */
+    public static final int DEFAULT_DELAY = Integer.getInteger("solr.alias.persistDelay", 60);
+
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final String CODEC_NAME = "AliasFilters";
+    private static final int VERSION_START = 0;
+    private static final int VERSION_CURRENT = VERSION_START;
+    private static final String EXTENSION = ".alf";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final byte DENSE = 0;
+    private static final byte SPARSE = 1;
+
+    private final SolrCore core;
+    private final Directory directory;
+    private final Supplier<String> configHash;
+    private final ScheduledExecutorService executor;
+    private Consumer<List<LeafReaderContext>> persist;
+
+    /**
+     * @param core       the core whose searcher determines the current segments, or null if the segments are only
+     *                   written when the store is closed
+     * @param path       the directory the files are written to
+     * @param configHash supplies the hash of the current alias config
+     */
+    public AliasFilterStore(SolrCore core, Path path, Supplier<String> configHash)
+            throws IOException {
+        this.core = core;
+        this.directory = FSDirectory.open(path);
+        this.configHash = configHash;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new DefaultSolrThreadFactory("aliasFilterStore"));
+    }
+
+    /**
+     * @return the store for the core, or null if the store is disabled or its directory cannot be opened
+     */
+    public static AliasFilterStore open(SolrCore core, Supplier<String> configHash) {
+        if (DEFAULT_DELAY <= 0) {
+            return null;
+        }
+        Path path = Paths.get(core.getDataDir(), DIR_NAME);
+        try {
+            return new AliasFilterStore(core, path, configHash);
+        } catch (IOException e) {
+            log.warn("Alias filters will not be persisted, cannot open {}", path, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the segment of a reader, or null if the reader is not a segment reader
+     */
+    static SegmentInfo segmentInfo(LeafReader reader) {
+        LeafReader unwrapped = FilterLeafReader.unwrap(reader);
+        return unwrapped instanceof SegmentReader ? ((SegmentReader) unwrapped).getSegmentInfo().info : null;
+    }
+
+    private static String fileName(SegmentInfo info, String configHash) {
+        return info.name + "_" + StringHelper.idToString(info.getId()) + "_" + configHash + EXTENSION;
+    }
+
+    String getConfigHash() {
+        return configHash.get();
+    }
+
+    /**
+     * Schedules the background writes.
+     *
+     * @param persist writes the changed segments among the given segments, or all the changed segments if null,
+     *                see {@link #write}
+     */
+    synchronized void start(Consumer<List<LeafReaderContext>> persist) {
+        this.persist = persist;
+        if (core == null) {
+            return;
+        }
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                persistSearcher();
+            } catch (Exception e) {
+                // the directory is in the core's data directory, so identifies the core
+                log.warn("Failed to persist the alias filters in {}", directory, e);
+            }
+        }, DEFAULT_DELAY, DEFAULT_DELAY, TimeUnit.SECONDS);
+    }
+
+    /*
+     * Writes the changed segments of the current searcher, then deletes the files of any other segment.
+     */
+    private void persistSearcher()
+            throws IOException {
+        RefCounted<SolrIndexSearcher> searcher = core.getSearcher();
+        try {
+            List<LeafReaderContext> leaves = searcher.get().getIndexReader().leaves();
+            persist.accept(leaves);
+            deleteStale(leaves);
+        } finally {
+            searcher.decref();
+        }
+    }
+
+    /**
+     * Stops the background writes, and writes the segments changed since the last write.
+     */
+    synchronized void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(DEFAULT_DELAY, TimeUnit.SECONDS);
+            if (persist != null) {
+                persist.accept(null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            IOUtils.closeWhileHandlingException(directory);
+        }
+    }
+
+    /**
+     * Reads the stored filters of a segment for the current alias config onto the heap.
+     *
+     * @return the filters keyed by alias key, empty if there is no valid file for the segment
+     */
+    Map<String, AliasFilterCache.Entry> read(SegmentInfo info, int maxDoc) {
+        String hash = configHash.get();
+        String name = fileName(info, hash);
+        Map<String, AliasFilterCache.Entry> entries;
+        try (ChecksumIndexInput in = directory.openChecksumInput(name, IOContext.READONCE)) {
+            entries = readEntries(in, info, hash, maxDoc, false);
+            CodecUtil.checkFooter(in);
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            return Collections.emptyMap();
+        } catch (IOException e) {
+            return invalid(name, e);
+        }
+        log.debug("Read {} alias filters of segment {}", entries.size(), info.name);
+        return entries;
+    }
+
+    /**
+     * Reads the stored filters of a segment for the current alias config, mapping the dense filters from the file
+     * if the directory is memory mapped.
+     *
+     * @param inputs the mapped file is added to the inputs, which must be closed once the filters are no longer
+     *               searched, i.e. when the segment is closed
+     * @return the filters keyed by alias key, empty if there is no valid file for the segment
+     */
+    Map<String, AliasFilterCache.Entry> map(SegmentInfo info, int maxDoc, List<Closeable> inputs) {
+        if (!(directory instanceof MMapDirectory)) {
+            return read(info, maxDoc);
+        }
+        String hash = configHash.get();
+        String name = fileName(info, hash);
+        Map<String, AliasFilterCache.Entry> entries;
+        IndexInput in = null;
+        boolean success = false;
+        try {
+            in = directory.openInput(name, IOContext.READ);
+            // the mapped filters are read in place, so the whole file is verified first
+            CodecUtil.checksumEntireFile(in);
+            in.seek(0);
+            entries = readEntries(in, info, hash, maxDoc, true);
+            if (in.getFilePointer() != in.length() - CodecUtil.footerLength()) {
+                throw new CorruptIndexException("Stored filters do not end at the footer", in);
+            }
+            success = true;
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            return Collections.emptyMap();
+        } catch (IOException e) {
+            return invalid(name, e);
+        } finally {
+            if (!success) {
+                IOUtils.closeWhileHandlingException(in);
+            }
+        }
+        inputs.add(in);
+        log.debug("Mapped {} alias filters of segment {}", entries.size(), info.name);
+        return entries;
+    }
+
+    private Map<String, AliasFilterCache.Entry> invalid(String name, IOException e) {
+        log.warn("Ignoring invalid alias filter file {}: {}", name, e.toString());
+        IOUtils.deleteFilesIgnoringExceptions(directory, name);
+        return Collections.emptyMap();
+    }
+
+    private static Map<String, AliasFilterCache.Entry> readEntries(IndexInput in, SegmentInfo info, String hash,
+                                                                   int maxDoc, boolean mapped)
+            throws IOException {
+        CodecUtil.checkIndexHeader(in, CODEC_NAME, VERSION_START, VERSION_CURRENT, info.getId(), hash);
+        if (in.readVInt() != maxDoc) {
+            throw new CorruptIndexException("Stored maxDoc does not match the segment", in);
+        }
+        int count = in.readVInt();
+        Map<String, AliasFilterCache.Entry> entries = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String key = in.readString();
+            int sourceHash = in.readInt();
+            entries.put(key, readEntry(in, sourceHash, maxDoc, mapped));
+        }
+        return entries;
+    }
+
+    private static AliasFilterCache.Entry readEntry(IndexInput in, int sourceHash, int maxDoc, boolean mapped)
+            throws IOException {
+        byte type = in.readByte();
+        if (type == DENSE) {
+            int count = in.readVInt();
+            int numWords = FixedBitSet.bits2words(maxDoc);
+            if (mapped) {
+                long offset = in.getFilePointer();
+                RandomAccessInput words = in.randomAccessSlice(offset, (long) numWords * Long.BYTES);
+                in.seek(offset + (long) numWords * Long.BYTES);
+                return new AliasFilterCache.Entry(sourceHash, new MappedDocIdSet(words, maxDoc, count), count);
+            }
+            long[] words = new long[numWords];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+            }
+            return new AliasFilterCache.Entry(sourceHash, new BitDocIdSet(new FixedBitSet(words, maxDoc), count),
+                    count);
+        }
+        if (type != SPARSE) {
+            throw new CorruptIndexException("Unknown filter type " + type, in);
+        }
+        int count = in.readVInt();
+        if (count == 0) {
+            return new AliasFilterCache.Entry(sourceHash, DocIdSet.EMPTY, 0);
+        }
+        SparseFixedBitSet bits = new SparseFixedBitSet(maxDoc);
+        int doc = -1;
+        for (int i = 0; i < count; i++) {
+            doc += in.readVInt() + 1;
+            if (doc >= maxDoc) {
+                throw new CorruptIndexException("Stored document " + doc + " beyond maxDoc " + maxDoc, in);
+            }
+            bits.set(doc);
+        }
+        return new AliasFilterCache.Entry(sourceHash, new BitDocIdSet(bits, count), count);
+    }
+
+    /**
+     * Writes the filters of a segment, replacing any previously written file for the segment and config.
+     * The file is written under a temporary name and renamed, so a partially written file is never read.
+     */
+    void write(SegmentInfo info, int maxDoc, Map<String, AliasFilterCache.Entry> entries, String hash)
+            throws IOException {
+        String name = fileName(info, hash);
+        IndexOutput out = directory.createTempOutput(info.name, "alias", IOContext.DEFAULT);
+        String tempName = out.getName();
+        boolean success = false;
+        try {
+            CodecUtil.writeIndexHeader(out, CODEC_NAME, VERSION_CURRENT, info.getId(), hash);
+            out.writeVInt(maxDoc);
+            out.writeVInt(entries.size());
+            for (Map.Entry<String, AliasFilterCache.Entry> entry : entries.entrySet()) {
+                out.writeString(entry.getKey());
+                out.writeInt(entry.getValue().sourceHash);
+                writeDocs(out, entry.getValue(), maxDoc);
+            }
+            CodecUtil.writeFooter(out);
+            success = true;
+        } finally {
+            if (success) {
+                out.close();
+            } else {
+                IOUtils.closeWhileHandlingException(out);
+                IOUtils.deleteFilesIgnoringExceptions(directory, tempName);
+            }
+        }
+        IOUtils.deleteFilesIgnoringExceptions(directory, name);
+        directory.rename(tempName, name);
+        log.debug("Wrote {} alias filters of segment {}", entries.size(), info.name);
+    }
+
+    private static void writeDocs(IndexOutput out, AliasFilterCache.Entry entry, int maxDoc)
+            throws IOException {
+        int numWords = FixedBitSet.bits2words(maxDoc);
+        if (entry.docs instanceof BitDocIdSet && ((BitDocIdSet) entry.docs).bits() instanceof FixedBitSet) {
+            out.writeByte(DENSE);
+            out.writeVInt(entry.count);
+            long[] words = ((FixedBitSet) ((BitDocIdSet) entry.docs).bits()).getBits();
+            for (int i = 0; i < numWords; i++) {
+                out.writeLong(words[i]);
+            }
+            return;
+        }
+        if (entry.docs instanceof MappedDocIdSet) {
+            // an entry mapped from the previous file of the segment
+            out.writeByte(DENSE);
+            out.writeVInt(entry.count);
+            RandomAccessInput words = ((MappedDocIdSet) entry.docs).words;
+            for (int i = 0; i < numWords; i++) {
+                out.writeLong(words.readLong((long) i * Long.BYTES));
+            }
+            return;
+        }
+        out.writeByte(SPARSE);
+        out.writeVInt(entry.count);
+        DocIdSetIterator iterator = entry.docs.iterator();
+        if (iterator == null) {
+            return;
+        }
+        int last = -1;
+        for (int doc = iterator.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iterator.nextDoc()) {
+            out.writeVInt(doc - last - 1);
+            last = doc;
+        }
+    }
+
+    /**
+     * Deletes the files, including temporary files, which do not belong to one of the given segments
+     * and the current alias config.
+     *
+     * @param leaves the segments of the current searcher
+     */
+    void deleteStale(List<LeafReaderContext> leaves)
+            throws IOException {
+        String hash = configHash.get();
+        Set<String> current = new HashSet<>();
+        for (LeafReaderContext context : leaves) {
+            SegmentInfo info = segmentInfo(context.reader());
+            if (info != null) {
+                current.add(fileName(info, hash));
+            }
+        }
+        for (String file : directory.listAll()) {
+            if ((file.endsWith(EXTENSION) || file.endsWith(TEMP_EXTENSION)) && !current.contains(file)) {
+                IOUtils.deleteFilesIgnoringExceptions(directory, file);
+            }
+        }
+    }
+
+    /**
+     * The documents of a dense filter, read from the words of its bit set in a mapped file.
+     */
+    static final class MappedDocIdSet
+            extends DocIdSet {
+
+        // the set and the slice of the mapped file it reads from
+        private static final long BASE_RAM_BYTES_USED =
+                RamUsageEstimator.shallowSizeOfInstance(MappedDocIdSet.class)
+                        + RamUsageEstimator.shallowSizeOfInstance(IndexInput.class)
+                        + 8 * RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+
+        private final RandomAccessInput words;
+        private final int maxDoc;
+        private final int numWords;
+        private final int count;
+
+        MappedDocIdSet(RandomAccessInput words, int maxDoc, int count) {
+            this.words = words;
+            this.maxDoc = maxDoc;
+            this.numWords = FixedBitSet.bits2words(maxDoc);
+            this.count = count;
+        }
+
+        private long word(int i)
+                throws IOException {
+            return words.readLong((long) i * Long.BYTES);
+        }
+
+        @Override
+        public Bits bits() {
+            return new Bits() {
+                @Override
+                public boolean get(int index) {
+                    try {
+                        // as in FixedBitSet, the shift only uses the low 6 bits of the index
+                        return (word(index >> 6) & (1L << index)) != 0;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public int length() {
+                    return maxDoc;
+                }
+            };
+        }
+
+        @Override
+        public DocIdSetIterator iterator() {
+            if (count == 0) {
+                return null;
+            }
+            return new DocIdSetIterator() {
+                private int doc = -1;
+
+                @Override
+                public int docID() {
+                    return doc;
+                }
+
+                @Override
+                public int nextDoc()
+                        throws IOException {
+                    return advance(doc + 1);
+                }
+
+                @Override
+                public int advance(int target)
+                        throws IOException {
+                    if (target >= maxDoc) {
+                        return doc = NO_MORE_DOCS;
+                    }
+                    int i = target >> 6;
+                    long word = word(i) >>> target;
+                    if (word != 0) {
+                        return doc = target + Long.numberOfTrailingZeros(word);
+                    }
+                    while (++i < numWords) {
+                        word = word(i);
+                        if (word != 0) {
+                            return doc = (i << 6) + Long.numberOfTrailingZeros(word);
+                        }
+                    }
+                    return doc = NO_MORE_DOCS;
+                }
+
+                @Override
+                public long cost() {
+                    return count;
+                }
+            };
+        }
+
+        @Override
+        public long ramBytesUsed() {
+            return BASE_RAM_BYTES_USED;
+        }
+    }
+}
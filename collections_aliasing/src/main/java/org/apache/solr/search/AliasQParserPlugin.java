@@ -0,0 +1,152 @@
+package org.apache.solr.search;
+
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.core.AliasConfig;
+import org.apache.solr.core.AliasDictionary;
+import org.apache.solr.handler.component.QueryAliasing;
+import org.apache.solr.request.SolrQueryRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses an alias reference, e.g. {!alias f=collection v=art}, into an {@link AliasFilterQuery}
+ * whose documents are cached per segment. An alias pattern, e.g. {!alias f=collection v=music_*},
+ * is parsed into the disjunction of the matching aliases. The clauses an alias query shares with other alias
+ * queries are parsed as references, e.g. {!alias f=collection shared=3}, so each shared clause is cached once.
+ * An alias expression, e.g. {!alias f=collection v='music_* AND NOT jazz'}, is parsed into an
+ * {@link AliasExpressionQuery} combining the cached documents of its aliases.
+ *
+ * Used by {@link QueryAliasing} when the request is expanded with the alias.cache parameter set.
+ * The plugin must be registered in solrconfig.xml as:
+ * <pre>
+ *   &lt;queryParser name="alias" class="org.apache.solr.search.AliasQParserPlugin"/&gt;
+ * </pre>
+ */
+public class AliasQParserPlugin
+        extends QParserPlugin {
+
+    public static final String NAME = "alias";
+    /** The local param referencing a clause shared by several alias queries */
+    public static final String SHARED = "shared";
+    /** Prefixes the ordinal of a shared clause in its filter cache key, as aliases are word characters */
+    public static final String SHARED_PREFIX = "#";
+
+    /**
+     * Returns the nested query referencing the shared clause of the pseudofield. The reference replaces the clause
+     * with its parentheses, so is itself parenthesised: it may follow an operator with no space, as in NOT(...).
+     */
+    public static String sharedReference(String field, int sharedOrd) {
+        return "(_query_:\"{!" + NAME + " f=" + field + " " + SHARED + "=" + sharedOrd + "}\")";
+    }
+
+    @Override
+    public QParser createParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req) {
+        return new AliasQParser(qstr, localParams, params, req);
+    }
+
+    private static class AliasQParser
+            extends QParser {
+
+        private AliasQParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req) {
+            super(qstr, localParams, params, req);
+        }
+
+        @Override
+        public Query parse()
+                throws SyntaxError {
+            String field = localParams.get(QueryParsing.F);
+            String alias = localParams.get(QueryParsing.V);
+            String shared = localParams.get(SHARED);
+            if (field == null || (alias == null && shared == null)) {
+                throw new SyntaxError("Alias query requires the pseudofield (f) and alias (v) local params");
+            }
+
+            // the config the request was expanded with, even if it has since been reloaded
+            AliasConfig aliasConfig = QueryAliasing.getAliasConfig(req);
+            AliasDictionary dictionary = aliasConfig.getAliases().get(field);
+            if (dictionary == null) {
+                throw new SyntaxError("Alias pseudofield \"" + field + "\" not defined in " +
+                        aliasConfig.getConfigFilename());
+            }
+
+            if (shared != null) {
+                return sharedQuery(dictionary, field, shared);
+            }
+
+            if (!AliasExpression.isAlias(alias)) {
+                return expressionQuery(aliasConfig, dictionary, field, alias);
+            }
+            if (!AliasDictionary.isPattern(alias)) {
+                return aliasQuery(aliasConfig, dictionary, field, alias);
+            }
+            // a pattern matches the union of the matching aliases
+            List<String> matches = dictionary.match(alias);
+            QueryAliasing.checkPatternMatches(field, alias, matches);
+            if (matches.size() == 1) {
+                return aliasQuery(aliasConfig, dictionary, field, matches.get(0));
+            }
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            for (String match : matches) {
+                builder.add(aliasQuery(aliasConfig, dictionary, field, match), BooleanClause.Occur.SHOULD);
+            }
+            return builder.build();
+        }
+
+        private Query expressionQuery(AliasConfig aliasConfig, AliasDictionary dictionary, String field,
+                                      String value)
+                throws SyntaxError {
+            AliasExpression expression = AliasExpression.parse(value);
+            Map<String, List<AliasFilterQuery>> aliases = new HashMap<>();
+            for (String alias : expression.getAliases()) {
+                List<AliasFilterQuery> filters = new ArrayList<>();
+                List<String> matches = dictionary.match(alias);
+                QueryAliasing.checkPatternMatches(field, alias, matches);
+                for (String match : matches) {
+                    filters.add(aliasQuery(aliasConfig, dictionary, field, match));
+                }
+                if (filters.isEmpty() && !AliasDictionary.isPattern(alias)) {
+                    throw QueryAliasing.undefinedAlias(aliasConfig, dictionary, alias);
+                }
+                aliases.put(alias, filters);
+            }
+            return new AliasExpressionQuery(field, expression, aliases);
+        }
+
+        private AliasFilterQuery aliasQuery(AliasConfig aliasConfig, AliasDictionary dictionary, String field,
+                                            String alias)
+                throws SyntaxError {
+            String source = dictionary.get(alias);
+            if (source == null) {
+                throw QueryAliasing.undefinedAlias(aliasConfig, dictionary, alias);
+            }
+            // the clauses shared with other aliases are executed as separately cached filters
+            String factored = dictionary.get(alias, sharedOrd -> sharedReference(field, sharedOrd));
+            Query query = subQuery(factored, DEFAULT_QTYPE).getQuery();
+            return new AliasFilterQuery(field, alias, AliasFilterQuery.key(field, alias, params), source, query,
+                    QueryAliasing.getAliasFilterCache(req.getCore()));
+        }
+
+        private Query sharedQuery(AliasDictionary dictionary, String field, String shared)
+                throws SyntaxError {
+            String source;
+            try {
+                source = dictionary.getShared(Integer.parseInt(shared));
+            } catch (NumberFormatException e) {
+                source = null;
+            }
+            if (source == null) {
+                throw new SyntaxError("Shared clause " + shared + " not defined for pseudofield " + field);
+            }
+            Query query = subQuery(source, DEFAULT_QTYPE).getQuery();
+            String alias = SHARED_PREFIX + shared;
+            return new AliasFilterQuery(field, alias, AliasFilterQuery.key(field, alias, params), source, query,
+                    QueryAliasing.getAliasFilterCache(req.getCore()));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.apache.solr.core;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+public class AliasConfigDiffTest
+        extends LuceneTestCase {
+
+    /**
+     * @param definitions the aliases, as pseudofield:alias=query
+     */
+    public static AliasConfig config(String... definitions)
+            throws Exception {
+        Map<String, StringBuilder> fields = new LinkedHashMap<>();
+        for (String definition : definitions) {
+            int colon = definition.indexOf(':');
+            int equals = definition.indexOf('=');
+            fields.computeIfAbsent(definition.substring(0, colon), f -> new StringBuilder())
+                    .append("<alias-def><alias>").append(definition, colon + 1, equals)
+                    .append("</alias><query>").append(definition.substring(equals + 1)).append("</query></alias-def>");
+        }
+        StringBuilder xml = new StringBuilder("<alias-configs>");
+        for (Map.Entry<String, StringBuilder> field : fields.entrySet()) {
+            xml.append("<alias-config><alias-pseudofield>").append(field.getKey()).append("</alias-pseudofield>")
+                    .append("<alias-defs>").append(field.getValue()).append("</alias-defs></alias-config>");
+        }
+        xml.append("</alias-configs>");
+        return new AliasConfig("query_aliases.xml", new InputSource(new StringReader(xml.toString())));
+    }
+
+    private static Set<String> set(String... values) {
+        return new TreeSet<>(Arrays.asList(values));
+    }
+
+    @Test
+    public void testDiff()
+            throws Exception {
+        AliasConfig oldConfig = config("collection:art=what:art", "collection:music=what:music",
+                "collection:maps=what:map", "place:uk=country:uk", "old:a=id:1");
+        AliasConfig newConfig = config("collection:art=what:art", "collection:music=what:(music OR song)",
+                "collection:photography=what:photo", "place:uk=country:uk", "new:b=id:2");
+        AliasConfigDiff diff = new AliasConfigDiff(oldConfig, newConfig);
+
+        assertFalse(diff.isEmpty());
+        assertEquals(set("collection", "new", "old"), diff.getFields());
+        assertEquals(set("photography"), diff.getAdded("collection"));
+        assertEquals(set("maps"), diff.getRemoved("collection"));
+        assertEquals(set("music"), diff.getChanged("collection"));
+        assertEquals(set("maps", "music", "photography"), diff.getAffected("collection"));
+        // the aliases of an added or removed pseudofield are all added or removed
+        assertEquals(set("b"), diff.getAdded("new"));
+        assertEquals(set("a"), diff.getRemoved("old"));
+        assertTrue(diff.getAffected("place").isEmpty());
+
+        NamedList<Object> list = diff.toNamedList();
+        assertEquals(3, list.size());
+        NamedList<?> collection = (NamedList<?>) list.get("collection");
+        assertEquals(set("photography"), collection.get("added"));
+        assertEquals(set("maps"), collection.get("removed"));
+        assertEquals(set("music"), collection.get("changed"));
+    }
+
+    @Test
+    public void testUnchanged()
+            throws Exception {
+        // the order of the definitions does not matter
+        AliasConfig oldConfig = config("collection:art=what:art", "collection:music=what:music", "place:uk=country:uk");
+        AliasConfig newConfig = config("place:uk=country:uk", "collection:music=what:music", "collection:art=what:art");
+        AliasConfigDiff diff = new AliasConfigDiff(oldConfig, newConfig);
+        assertTrue(diff.isEmpty());
+        assertTrue(diff.getFields().isEmpty());
+        assertEquals(0, diff.toNamedList().size());
+        assertEquals(oldConfig.getConfigHash(), newConfig.getConfigHash());
+    }
+}
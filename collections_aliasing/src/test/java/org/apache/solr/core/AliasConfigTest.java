@@ -0,0 +1,58 @@
+package org.apache.solr.core;
+
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.RamUsageTester;
+import org.apache.lucene.util.TestUtil;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+public class AliasConfigTest
+        extends LuceneTestCase {
+
+    @Test
+    public void testRamBytesUsed()
+            throws Exception {
+        StringBuilder xml = new StringBuilder("<alias-configs>");
+        for (String field : new String[]{"collection", "place"}) {
+            xml.append("<alias-config><alias-pseudofield>").append(field).append("</alias-pseudofield><alias-defs>");
+            for (int i = 0; i < 500; i++) {
+                xml.append("<alias-def><alias>").append(field).append(i).append("</alias><query>");
+                if (i % 3 == 0) {
+                    // a clause shared by several queries
+                    xml.append("(what:q").append(i).append(") AND (PROVIDER:\"Europeana Fashion\")");
+                } else {
+                    xml.append("what:(").append(TestUtil.randomSimpleString(random(), 5, 40)).append(')');
+                }
+                xml.append("</query>");
+                if (i % 5 == 0) {
+                    xml.append("<shards>shard1,shard2</shards><route>r").append(i).append("!</route>");
+                }
+                xml.append("</alias-def>");
+            }
+            xml.append("</alias-defs></alias-config>");
+        }
+        xml.append("</alias-configs>");
+        AliasConfig config = new AliasConfig(AliasConfig.DEFAULT_CONF_FILE,
+                new InputSource(new StringReader(xml.toString())));
+        assertEquals(500, config.getAliases().get("collection").size());
+
+        long actual = RamUsageTester.sizeOf(config, new RamUsageTester.Accumulator() {
+            @Override
+            public long accumulateObject(Object o, long shallowSize, Map<Field, Object> fieldValues,
+                                         Collection<Object> queue) {
+                // the resource loader and the properties it substitutes belong to the core
+                if (o instanceof SolrResourceLoader || o instanceof Properties) {
+                    return 0;
+                }
+                return super.accumulateObject(o, shallowSize, fieldValues, queue);
+            }
+        });
+        assertEquals(actual, config.ramBytesUsed(), actual * 0.1);
+    }
+}
@@ -0,0 +1,105 @@
+package org.apache.solr.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.RamUsageTester;
+import org.junit.Test;
+
+public class AliasDictionaryTest
+        extends LuceneTestCase {
+
+    private static AliasDictionary dictionary() {
+        Map<String, String> aliases = new LinkedHashMap<>();
+        aliases.put("music_jazz", "genre:jazz");
+        aliases.put("music", "TYPE:SOUND");
+        aliases.put("music_folk", "genre:folk");
+        aliases.put("maps", "what:map");
+        aliases.put("art", "what:painting");
+        return new AliasDictionary(aliases);
+    }
+
+    @Test
+    public void testGet() {
+        AliasDictionary dictionary = dictionary();
+        assertEquals(5, dictionary.size());
+        assertEquals("TYPE:SOUND", dictionary.get("music"));
+        assertEquals("genre:folk", dictionary.get("music_folk"));
+        assertNull(dictionary.get("music_"));
+        assertNull(dictionary.get("fashion"));
+        assertFalse(dictionary.containsKey("mus"));
+    }
+
+    @Test
+    public void testMatch() {
+        AliasDictionary dictionary = dictionary();
+        assertEquals(Arrays.asList("music", "music_folk", "music_jazz"), dictionary.match("music*"));
+        assertEquals(Arrays.asList("music_folk", "music_jazz"), dictionary.match("music_*"));
+        assertEquals(Collections.singletonList("maps"), dictionary.match("ma?s"));
+        assertEquals(Arrays.asList("music_folk", "music_jazz"), dictionary.match("mu*_*"));
+        assertEquals(Collections.singletonList("art"), dictionary.match("art"));
+        assertEquals(Collections.emptyList(), dictionary.match("fashion*"));
+        assertEquals(Arrays.asList("art", "maps", "music", "music_folk", "music_jazz"), dictionary.names());
+    }
+
+    @Test
+    public void testSuggest() {
+        AliasDictionary dictionary = dictionary();
+        assertEquals(Collections.singletonList("music"), dictionary.suggest("musci", 3));
+        assertEquals(Collections.singletonList("music_jazz"), dictionary.suggest("music_jaz", 3));
+        assertEquals(Collections.singletonList("maps"), dictionary.suggest("mapps", 3));
+        assertEquals(Collections.emptyList(), dictionary.suggest("musci", 0));
+        assertEquals(Collections.singletonList("art"), dictionary.suggest("arts", 3));
+        assertEquals(Collections.emptyList(), dictionary.suggest("fashion", 3));
+    }
+
+    @Test
+    public void testSharedClauses() {
+        Map<String, String> aliases = new LinkedHashMap<>();
+        aliases.put("fashion", "(PROVIDER:\"Europeana Fashion\") AND (RIGHTS:\"open licence\")");
+        aliases.put("costume", "(what:costume) AND (RIGHTS:\"open licence\")");
+        aliases.put("maps", "what:(map OR \"(RIGHTS:\\\"open licence\\\")\")");
+        AliasDictionary dictionary = new AliasDictionary(aliases);
+
+        assertEquals(1, dictionary.sharedCount());
+        assertEquals("(RIGHTS:\"open licence\")", dictionary.getShared(0));
+        assertNull(dictionary.getShared(1));
+        for (Map.Entry<String, String> alias : aliases.entrySet()) {
+            assertEquals(alias.getValue(), dictionary.get(alias.getKey()));
+        }
+        assertEquals("(what:costume) AND #0", dictionary.get("costume", ord -> "#" + ord));
+        assertEquals(aliases.get("maps"), dictionary.get("maps", ord -> "#" + ord));
+    }
+
+    @Test
+    public void testClauses() {
+        assertEquals(2, FactoredQueries.clauses("(a:b) OR NOT(c:\"(d)\")").size());
+        assertEquals(0, FactoredQueries.clauses("what:(a OR b)").size());
+        assertEquals(0, FactoredQueries.clauses("(a:b OR (c:d)").size());
+        assertEquals(0, FactoredQueries.clauses("(a:\"b)").size());
+    }
+
+    @Test
+    public void testRamBytesUsed() {
+        Map<String, String> aliases = new LinkedHashMap<>();
+        for (int i = 0; i < 500; i++) {
+            aliases.put("collection_" + i, "(what:item" + i + " OR subject:\"topic " + i + "\") AND " +
+                    "(PROVIDER:\"Provider " + (i % 10) + "\") AND (RIGHTS:\"open licence\")");
+        }
+        AliasDictionary dictionary = new AliasDictionary(aliases);
+        long actual = RamUsageTester.sizeOf(dictionary);
+        assertEquals(actual, dictionary.ramBytesUsed(), 0.2 * actual);
+    }
+
+    @Test
+    public void testEmpty() {
+        AliasDictionary dictionary = new AliasDictionary(Collections.emptyMap());
+        assertEquals(0, dictionary.size());
+        assertNull(dictionary.get("art"));
+        assertEquals(Collections.emptyList(), dictionary.match("*"));
+        assertEquals(Collections.emptyList(), dictionary.suggest("art", 3));
+    }
+}
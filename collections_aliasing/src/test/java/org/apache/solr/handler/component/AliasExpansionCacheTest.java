@@ -0,0 +1,120 @@
+package org.apache.solr.handler.component;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.RamUsageTester;
+import org.apache.solr.core.AliasConfig;
+import org.apache.solr.core.AliasConfigDiff;
+import org.junit.Test;
+
+import static org.apache.solr.core.AliasConfigDiffTest.config;
+
+public class AliasExpansionCacheTest
+        extends LuceneTestCase {
+
+    private static AliasExpansionCache cache(int entries) {
+        AliasExpansionCache cache = new AliasExpansionCache(2 * entries);
+        for (int i = 0; i < entries; i++) {
+            String alias = "collection:alias" + (i % 10);
+            cache.put("text:word" + i + " AND " + alias,
+                    "text:word" + i + " AND (what:item" + (i % 10) + " OR subject:\"topic " + (i % 10) + "\")",
+                    Collections.singletonList(alias), null, cache.getEpoch());
+        }
+        return cache;
+    }
+
+    @Test
+    public void testRamBytesUsed() {
+        AliasExpansionCache cache = cache(1000);
+        assertEquals(1000, cache.size());
+        long actual = RamUsageTester.sizeOf(cache);
+        assertEquals(actual, cache.ramBytesUsed(), 0.3 * actual);
+    }
+
+    @Test
+    public void testEvict() {
+        AliasExpansionCache cache = cache(1000);
+        long half = cache.ramBytesUsed() / 2;
+        assertTrue(cache.evict(half) > 0);
+        assertTrue(cache.ramBytesUsed() <= half);
+        assertTrue(cache.size() < 1000);
+        // the most recently used entries are kept
+        assertNotNull(cache.get("text:word999 AND collection:alias9", null));
+        assertNull(cache.get("text:word0 AND collection:alias0", null));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.evict(0));
+    }
+
+    private static void put(AliasExpansionCache cache, String value, AliasConfig config, String... dependencies) {
+        cache.put(value, "expanded " + value, Arrays.asList(dependencies), config, cache.getEpoch());
+    }
+
+    @Test
+    public void testInvalidate()
+            throws Exception {
+        AliasConfig oldConfig = config("collection:art=what:art", "collection:music=what:music",
+                "collection:maps=what:map", "place:uk=country:uk");
+        AliasConfig newConfig = config("collection:art=what:art", "collection:music=what:song",
+                "collection:maps=what:map", "collection:magazines=what:magazine", "place:uk=country:uk");
+        AliasExpansionCache cache = new AliasExpansionCache(100);
+        put(cache, "art", oldConfig, "collection:art");
+        put(cache, "music", oldConfig, "collection:music");
+        put(cache, "art and music", oldConfig, "collection:art", "collection:music");
+        // only matched maps when it was expanded, but matches the added magazines
+        put(cache, "ma*", oldConfig, "collection:ma*");
+        put(cache, "a*", oldConfig, "collection:a*");
+        put(cache, "art in the uk", oldConfig, "collection:art", "place:uk");
+        long epoch = cache.getEpoch();
+
+        AliasConfigDiff diff = new AliasConfigDiff(oldConfig, newConfig);
+        assertEquals(3, cache.invalidate(diff, oldConfig, newConfig));
+        assertEquals(3, cache.size());
+        for (String value : new String[]{"music", "art and music", "ma*"}) {
+            assertNull(value, cache.get(value, newConfig));
+        }
+        for (String value : new String[]{"art", "a*", "art in the uk"}) {
+            // the unaffected entries are bound to the new config
+            assertEquals("expanded " + value, cache.get(value, newConfig));
+            assertNull(value, cache.get(value, oldConfig));
+        }
+
+        // an expansion from the config read before the reload is not cached
+        cache.put("maps", "expanded maps", Collections.singletonList("collection:maps"), oldConfig, epoch);
+        assertNull(cache.get("maps", oldConfig));
+        assertEquals(3, cache.size());
+
+        // a second reload only invalidates the entries depending on its changes
+        put(cache, "music", newConfig, "collection:music");
+        AliasConfig reverted = config("collection:art=what:art", "collection:music=what:music",
+                "collection:maps=what:map", "collection:magazines=what:magazine", "place:uk=country:uk");
+        assertEquals(1, cache.invalidate(new AliasConfigDiff(newConfig, reverted), newConfig, reverted));
+        assertNull(cache.get("music", reverted));
+        assertEquals("expanded art", cache.get("art", reverted));
+    }
+
+    @Test
+    public void testInvalidateAddedPseudofield()
+            throws Exception {
+        AliasConfig oldConfig = config("collection:art=what:art", "place:uk=country:uk");
+        AliasExpansionCache cache = new AliasExpansionCache(100);
+        // cached before the pseudofield was added, so newfield:x was left as it was
+        put(cache, "collection:art AND newfield:x", oldConfig, "collection:art");
+        put(cache, "place:uk", oldConfig, "place:uk");
+
+        AliasConfig newConfig = config("collection:art=what:art", "place:uk=country:uk", "newfield:x=what:x");
+        assertEquals(2, cache.invalidate(new AliasConfigDiff(oldConfig, newConfig), oldConfig, newConfig));
+        assertEquals(0, cache.size());
+        // so the value is expanded with the new pseudofield
+        assertNull(cache.get("collection:art AND newfield:x", newConfig));
+
+        // as are the values cached before a pseudofield was removed
+        put(cache, "collection:art", newConfig, "collection:art");
+        AliasConfig removed = config("collection:art=what:art", "place:uk=country:uk");
+        assertEquals(1, cache.invalidate(new AliasConfigDiff(newConfig, removed), newConfig, removed));
+        assertNull(cache.get("collection:art", removed));
+    }
+}
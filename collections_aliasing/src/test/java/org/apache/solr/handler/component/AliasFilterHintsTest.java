@@ -0,0 +1,43 @@
+package org.apache.solr.handler.component;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.junit.Test;
+
+import static org.apache.solr.handler.component.AliasFilterHints.Strategy.CACHED;
+import static org.apache.solr.handler.component.AliasFilterHints.Strategy.HUGE;
+import static org.apache.solr.handler.component.AliasFilterHints.Strategy.RARE;
+import static org.apache.solr.handler.component.AliasFilterHints.Strategy.UNMEASURED;
+import static org.apache.solr.handler.component.AliasFilterHints.choose;
+
+public class AliasFilterHintsTest
+        extends LuceneTestCase {
+
+    @Test
+    public void testDefaultThresholds() {
+        SolrParams params = new ModifiableSolrParams();
+        assertEquals(UNMEASURED, choose(-1, 10000, params));
+        assertEquals(HUGE, choose(5000, 10000, params));
+        assertEquals(CACHED, choose(4999, 10000, params));
+        assertEquals(CACHED, choose(1001, 10000, params));
+        assertEquals(RARE, choose(1000, 10000, params));
+        assertEquals(RARE, choose(0, 10000, params));
+        // an alias matching most of a small index is a post filter, even though it matches few documents
+        assertEquals(HUGE, choose(10, 10, params));
+        assertEquals(RARE, choose(0, 0, params));
+    }
+
+    @Test
+    public void testParamThresholds() {
+        SolrParams params = new ModifiableSolrParams()
+                .set(AliasFilterHints.HUGE_RATIO, "0.9")
+                .set(AliasFilterHints.RARE_DOCS, "10");
+        assertEquals(HUGE, choose(9000, 10000, params));
+        assertEquals(CACHED, choose(8999, 10000, params));
+        assertEquals(CACHED, choose(5000, 10000, params));
+        assertEquals(CACHED, choose(11, 10000, params));
+        assertEquals(RARE, choose(10, 10000, params));
+        assertEquals(UNMEASURED, choose(-1, 10000, params));
+    }
+}
@@ -0,0 +1,147 @@
+package org.apache.solr.handler.component;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.ShardParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.core.AliasConfig;
+import org.apache.solr.core.AliasRoute;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+public class AliasRoutingTest
+        extends LuceneTestCase {
+
+    private static AliasConfig config;
+
+    private static String aliasDef(String alias, String shards, String route) {
+        return "<alias-def><alias>" + alias + "</alias><query>what:" + alias + "</query>"
+                + (shards == null ? "" : "<shards>" + shards + "</shards>")
+                + (route == null ? "" : "<route>" + route + "</route>") + "</alias-def>";
+    }
+
+    @BeforeClass
+    public static void beforeTests()
+            throws Exception {
+        String xml = "<alias-configs>"
+                + "<alias-config><alias-pseudofield>collection</alias-pseudofield><alias-defs>"
+                + aliasDef("art", "shard1,shard2", "art!")
+                + aliasDef("music", "shard2,shard3", "music!")
+                + aliasDef("maps", "shard3", null)
+                + aliasDef("photo", null, "photo!")
+                + aliasDef("other", null, null)
+                + "</alias-defs></alias-config>"
+                + "<alias-config><alias-pseudofield>place</alias-pseudofield><alias-defs>"
+                + aliasDef("uk", "shard1", null)
+                + "</alias-defs></alias-config>"
+                + "</alias-configs>";
+        config = new AliasConfig("query_aliases.xml", new InputSource(new StringReader(xml)));
+    }
+
+    /**
+     * @return the shards of the routes, or null if the value does not restrict the request
+     */
+    private static Set<String> restrictingShards(String value) {
+        List<AliasRoute> routes = AliasRouting.restrictingRoutes(config, value);
+        if (routes == null) {
+            return null;
+        }
+        Set<String> shards = new TreeSet<>();
+        for (AliasRoute route : routes) {
+            shards.addAll(route.getShards());
+        }
+        return shards;
+    }
+
+    private static Set<String> set(String... values) {
+        return new TreeSet<>(Arrays.asList(values));
+    }
+
+    private static SolrParams routed(String... params) {
+        ModifiableSolrParams solrParams = new ModifiableSolrParams();
+        for (int i = 0; i < params.length; i += 2) {
+            solrParams.add(params[i], params[i + 1]);
+        }
+        return AliasRouting.routedParams(config, solrParams);
+    }
+
+    @Test
+    public void testRestrictingRoutes() {
+        assertEquals(set("shard1", "shard2"), restrictingShards("collection:art"));
+        assertEquals(set("shard1", "shard2"), restrictingShards(" +collection:art "));
+        assertEquals(set(), restrictingShards("collection:photo"));
+        assertEquals("photo!", AliasRouting.restrictingRoutes(config, "collection:photo").get(0).getRoute());
+
+        // a pattern restricts the request to the union of the matching aliases
+        assertEquals(2, AliasRouting.restrictingRoutes(config, "collection:m*").size());
+        assertEquals(set("shard2", "shard3"), restrictingShards("collection:m*"));
+        assertNull(restrictingShards("collection:nothing*"));
+
+        // as does a group, unless it excludes an alias
+        assertEquals(set("shard1", "shard2", "shard3"), restrictingShards("collection:(art OR music)"));
+        assertEquals(set("shard1", "shard2", "shard3"), restrictingShards("collection:(art AND music)"));
+        assertEquals(set("shard1", "shard2", "shard3"), restrictingShards("collection:(art m*)"));
+        assertNull(restrictingShards("collection:(art AND NOT music)"));
+        assertNull(restrictingShards("collection:(art -music)"));
+        assertNull(restrictingShards("collection:(art OR"));
+
+        // every alias must have a routing
+        assertNull(restrictingShards("collection:other"));
+        assertNull(restrictingShards("collection:(art OR other)"));
+        assertNull(restrictingShards("collection:o*"));
+
+        // only a single alias of a pseudofield restricts the request
+        assertNull(restrictingShards("what:art"));
+        assertNull(restrictingShards("collection:art AND place:uk"));
+        assertNull(restrictingShards("collection:art OR what:music"));
+        assertNull(restrictingShards("*:*"));
+    }
+
+    @Test
+    public void testShards() {
+        assertEquals("shard1,shard2", routed(CommonParams.FQ, "collection:art").get(ShardParams.SHARDS));
+        assertNull(routed(CommonParams.FQ, "collection:art").get(ShardParams._ROUTE_));
+        assertEquals("shard3", routed(CommonParams.Q, "collection:maps").get(ShardParams.SHARDS));
+
+        // the union of the aliases of a value, intersected across the values
+        assertEquals("shard1,shard2,shard3", routed(CommonParams.FQ, "collection:(art OR music)")
+                .get(ShardParams.SHARDS));
+        assertEquals("shard2", routed(CommonParams.FQ, "collection:art", CommonParams.FQ, "collection:music")
+                .get(ShardParams.SHARDS));
+        assertEquals("shard1", routed(CommonParams.FQ, "collection:(art OR music)", CommonParams.Q, "place:uk")
+                .get(ShardParams.SHARDS));
+
+        // the values which are not restricted by shards are ignored
+        SolrParams routed = routed(CommonParams.Q, "what:art", CommonParams.FQ, "collection:photo",
+                CommonParams.FQ, "collection:art");
+        assertEquals("shard1,shard2", routed.get(ShardParams.SHARDS));
+        assertNull(routed.get(ShardParams._ROUTE_));
+        assertEquals("what:art", routed.get(CommonParams.Q));
+        assertEquals(2, routed.getParams(CommonParams.FQ).length);
+    }
+
+    @Test
+    public void testRoutes() {
+        assertEquals("photo!", routed(CommonParams.FQ, "collection:photo").get(ShardParams._ROUTE_));
+        assertNull(routed(CommonParams.FQ, "collection:photo").get(ShardParams.SHARDS));
+
+        // an alias without shards routes the value by the route keys of all its aliases
+        SolrParams routed = routed(CommonParams.FQ, "collection:(art OR photo)");
+        assertNull(routed.get(ShardParams.SHARDS));
+        assertEquals("art!,photo!", routed.get(ShardParams._ROUTE_));
+
+        // only a single routed value sets the route
+        assertNull(routed(CommonParams.FQ, "collection:photo", CommonParams.Q, "collection:(art OR photo)"));
+        assertNull(routed(CommonParams.FQ, "collection:(maps OR photo)"));
+        assertNull(routed(CommonParams.FQ, "collection:other"));
+        assertNull(routed(CommonParams.Q, "*:*"));
+    }
+}
@@ -0,0 +1,138 @@
+package org.apache.solr.handler.component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.function.Supplier;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.request.SolrQueryRequest;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Fails when expanding a request allocates, or expands, more than its budget, so that performance regressions
+ * in {@link QueryAliasing} are caught by the tests. The allocations of the thread are measured with the
+ * com.sun.management.ThreadMXBean, and the budgets can be changed with the tests.alias.* system properties.
+ */
+public class AliasingAllocationTest
+        extends SolrTestCaseJ4 {
+
+    /** Bytes allocated per request without aliases */
+    private static final long NO_ALIAS_BYTES = Long.getLong("tests.alias.noAliasBytes", 64);
+    /** Bytes allocated per request whose expansions are cached */
+    private static final long CACHED_BYTES = Long.getLong("tests.alias.cachedBytes", 4096);
+    /** Bytes allocated per request expanding a value, per character of the expanded value, over CACHED_BYTES */
+    private static final long EXPANSION_BYTES_PER_CHAR = Long.getLong("tests.alias.expansionBytesPerChar", 16);
+    /** CPU nanoseconds per request whose expansions are cached, 0 to not check the CPU time */
+    private static final long CACHED_CPU_NANOS = Long.getLong("tests.alias.cachedCpuNanos", 0);
+
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 1000;
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    @BeforeClass
+    public static void beforeTests()
+            throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        assumeTrue("Thread allocation counters not supported",
+                threadMXBean instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported());
+        threads = (com.sun.management.ThreadMXBean) threadMXBean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        initCore("solrconfig.xml", "schema.xml");
+    }
+
+    /**
+     * @return the mean bytes allocated by a call to modifyRequest, over and above the cost of measuring
+     */
+    private static long allocatedPerRequest(Supplier<SolrQueryRequest> requests) {
+        long id = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP; i++) {
+            SolrQueryRequest req = requests.get();
+            QueryAliasing.modifyRequest(req);
+            req.close();
+        }
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            long before = threads.getThreadAllocatedBytes(id);
+            overhead = Math.min(overhead, threads.getThreadAllocatedBytes(id) - before);
+        }
+        long allocated = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            SolrQueryRequest req = requests.get();
+            long before = threads.getThreadAllocatedBytes(id);
+            QueryAliasing.modifyRequest(req);
+            allocated += threads.getThreadAllocatedBytes(id) - before - overhead;
+            req.close();
+        }
+        return Math.max(0, allocated / ITERATIONS);
+    }
+
+    @Test
+    public void testNoAliasRequest() {
+        long allocated = allocatedPerRequest(() -> req("q", "text:music", "fq", "id:1", "rows", "10"));
+        assertTrue("Request without aliases allocated " + allocated + " bytes, budget " + NO_ALIAS_BYTES,
+                allocated <= NO_ALIAS_BYTES);
+    }
+
+    @Test
+    public void testCachedRequest() {
+        long allocated = allocatedPerRequest(
+                () -> req("q", "text:music", "fq", "collection:art", "fq", "collection:m*", "rows", "10"));
+        assertTrue("Request with cached expansions allocated " + allocated + " bytes, budget " + CACHED_BYTES,
+                allocated <= CACHED_BYTES);
+    }
+
+    @Test
+    public void testExpandedRequest() {
+        String expanded = QueryAliasing.getAliasConfig(h.getCore()).getAliases().get("collection").get("art");
+        int[] n = new int[1];
+        // a different value each time, so each request is expanded
+        long allocated = allocatedPerRequest(() -> req("q", "text:music" + n[0]++ + " AND collection:art"));
+        long budget = CACHED_BYTES + EXPANSION_BYTES_PER_CHAR * expanded.length();
+        assertTrue("Expanded request allocated " + allocated + " bytes, budget " + budget, allocated <= budget);
+    }
+
+    @Test
+    public void testCachedCpuTime() {
+        assumeTrue("CPU budget not set", CACHED_CPU_NANOS > 0 && threads.isCurrentThreadCpuTimeSupported());
+        long cpu = 0;
+        for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+            SolrQueryRequest req = req("q", "text:music", "fq", "collection:art", "fq", "collection:m*");
+            long before = threads.getCurrentThreadCpuTime();
+            QueryAliasing.modifyRequest(req);
+            if (i >= WARMUP) {
+                cpu += threads.getCurrentThreadCpuTime() - before;
+            }
+            req.close();
+        }
+        long perRequest = cpu / ITERATIONS;
+        assertTrue("Cached request took " + perRequest + "ns of CPU, budget " + CACHED_CPU_NANOS,
+                perRequest <= CACHED_CPU_NANOS);
+    }
+
+    @Test
+    public void testExpansionCounts() {
+        AliasExpansionCache expansionCache = QueryAliasing.getExpansionCache(h.getCore());
+        String text = "text:counted" + random().nextInt(Integer.MAX_VALUE);
+        String q = text + " AND collection:music";
+        String fq = text + " AND collection:(art OR photography) -collection:maps";
+
+        long before = expansionCache.getExpansions();
+        SolrQueryRequest req = req("q", q, "fq", fq, "fq", "id:1");
+        QueryAliasing.modifyRequest(req);
+        req.close();
+        // the q and the aliased fq are expanded, the fq without aliases is not
+        assertEquals(2, expansionCache.getExpansions() - before);
+
+        before = expansionCache.getExpansions();
+        for (int i = 0; i < 100; i++) {
+            req = req("q", q, "fq", fq, "fq", "id:1");
+            QueryAliasing.modifyRequest(req);
+            assertFalse(req.getParams().get("q").contains("collection:"));
+            req.close();
+        }
+        assertEquals(0, expansionCache.getExpansions() - before);
+    }
+}
@@ -0,0 +1,42 @@
+package org.apache.solr.handler.component;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs aliased queries through the /export handler of the test config, which expands them with the
+ * {@link AliasingComponent} listed before its query component.
+ */
+// the /export handler of Solr 6.6 does not support the point fields the test schema may randomly use for num_idv
+@SolrTestCaseJ4.SuppressPointFields(bugUrl = "export of point fields is unsupported in Solr 6.6")
+public class AliasingComponentTest
+        extends SolrTestCaseJ4 {
+
+    @BeforeClass
+    public static void beforeTests()
+            throws Exception {
+        initCore("solrconfig.xml", "schema.xml");
+    }
+
+    @Test
+    public void testExport()
+            throws Exception {
+        clearIndex();
+        for (int id = 0; id < 6; id++) {
+            assertU(adoc("id", String.valueOf(id), "cat", id % 2 == 0 ? "even" : "odd", "num_idv", String.valueOf(id)));
+        }
+        assertU(commit());
+
+        for (String cache : new String[]{"false", "true"}) {
+            assertJQ(req("qt", "/export", "q", "*:*", "fq", "theme:even", "fl", "num_idv", "sort", "num_idv asc",
+                    QueryAliasing.ALIAS_CACHE, cache),
+                    "/response/numFound==3",
+                    "/response/docs==[{'num_idv':0},{'num_idv':2},{'num_idv':4}]");
+            assertJQ(req("qt", "/export", "q", "theme:odd", "fl", "num_idv", "sort", "num_idv desc",
+                    QueryAliasing.ALIAS_CACHE, cache),
+                    "/response/numFound==3",
+                    "/response/docs==[{'num_idv':5},{'num_idv':3},{'num_idv':1}]");
+        }
+    }
+}
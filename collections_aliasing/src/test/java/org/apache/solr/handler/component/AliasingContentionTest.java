@@ -0,0 +1,274 @@
+package org.apache.solr.handler.component;
+
+import java.io.StringReader;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.core.AliasConfig;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.AliasFilterQuery;
+import org.apache.solr.search.QParser;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+
+/**
+ * Runs 1 to 64 request threads through {@link QueryAliasing#modifyRequest} while the alias config is reloaded
+ * continuously, alternating between two configs in which half the aliases differ. Fails if any request combines
+ * aliases expanded from both configs, and logs the throughput and latency percentiles for each number of threads.
+ * With alias.cache=true the expanded values are alias references, so they are parsed after the expansion, while
+ * the reloads continue, and fail if the parsed queries combine aliases from both configs.
+ * The time spent at each number of threads is set by the tests.alias.contentionMillis system property.
+ */
+public class AliasingContentionTest
+        extends SolrTestCaseJ4 {
+
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private static final long MILLIS = Long.getLong("tests.alias.contentionMillis", 500);
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+    private static final int ALIASES = 10;
+    private static final int DISTINCT_VALUES = 50;
+    // the latencies kept by each thread, sampled uniformly from all its requests
+    private static final int LATENCY_SAMPLES = 4096;
+    private static final long RELOAD_INTERVAL_MILLIS = 5;
+
+    private static AliasConfig configA;
+    private static AliasConfig configB;
+
+    @BeforeClass
+    public static void beforeTests()
+            throws Exception {
+        initCore("solrconfig.xml", "schema.xml");
+        configA = aliasConfig(h.getCore(), "A");
+        configB = aliasConfig(h.getCore(), "B");
+    }
+
+    @AfterClass
+    public static void afterTests() {
+        configA = null;
+        configB = null;
+    }
+
+    /*
+     * The first half of the aliases are marked with the version of the config, the others are the same in both.
+     */
+    private static AliasConfig aliasConfig(SolrCore core, String version)
+            throws Exception {
+        StringBuilder xml = new StringBuilder("<alias-configs><alias-config>");
+        xml.append("<alias-pseudofield>collection</alias-pseudofield><alias-defs>");
+        for (int i = 0; i < ALIASES; i++) {
+            String query = i < ALIASES / 2 ? "(subject:version" + version + ") AND id:" + i : "id:" + i;
+            xml.append("<alias-def><alias>a").append(i).append("</alias><query>").append(query)
+                    .append("</query></alias-def>");
+        }
+        xml.append("</alias-defs></alias-config></alias-configs>");
+        return new AliasConfig(core.getResourceLoader(), "query_aliases.xml",
+                new InputSource(new StringReader(xml.toString())));
+    }
+
+    /**
+     * @return the versions of the config seen by the expanded q and fq values
+     */
+    private static String versions(SolrParams params) {
+        StringBuilder versions = new StringBuilder();
+        for (String name : new String[]{"q", "fq"}) {
+            for (String value : params.getParams(name)) {
+                if (value.contains("collection:")) {
+                    throw new AssertionError("Not expanded: " + value);
+                }
+                if (value.contains("versionA") && versions.indexOf("A") < 0) {
+                    versions.append('A');
+                }
+                if (value.contains("versionB") && versions.indexOf("B") < 0) {
+                    versions.append('B');
+                }
+            }
+        }
+        return versions.toString();
+    }
+
+    /**
+     * @return the versions of the config seen by the queries parsed from the q and fq alias references
+     */
+    private static String parsedVersions(SolrQueryRequest req)
+            throws Exception {
+        StringBuilder versions = new StringBuilder();
+        for (String name : new String[]{"q", "fq"}) {
+            for (String value : req.getParams().getParams(name)) {
+                addVersions(QParser.getParser(value, req).getQuery(), versions);
+            }
+        }
+        return versions.toString();
+    }
+
+    // the alias expressions of the groups are not descended into, but the q and single alias fq are
+    private static void addVersions(Query query, StringBuilder versions) {
+        if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+                addVersions(clause.getQuery(), versions);
+            }
+        } else if (query instanceof AliasFilterQuery) {
+            addVersions(((AliasFilterQuery) query).getQuery(), versions);
+        } else {
+            String text = query.toString().toLowerCase(Locale.ROOT);
+            if (text.contains("versiona") && versions.indexOf("A") < 0) {
+                versions.append('A');
+            }
+            if (text.contains("versionb") && versions.indexOf("B") < 0) {
+                versions.append('B');
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentReloads()
+            throws Exception {
+        runThreads(false);
+    }
+
+    @Test
+    public void testConcurrentReloadsCachingFilters()
+            throws Exception {
+        runThreads(true);
+    }
+
+    private void runThreads(boolean cacheFilters)
+            throws Exception {
+        SolrCore core = h.getCore();
+        QueryAliasing.reloadAliasConfig(core, configA);
+        try {
+            List<String> results = new ArrayList<>();
+            for (int threads : THREADS) {
+                results.add(run(core, threads, cacheFilters));
+            }
+            log.info("Aliasing throughput and latency with continuous reloads, alias.cache={}:\n{}", cacheFilters,
+                    String.join("\n", results));
+        } finally {
+            QueryAliasing.reloadAliasConfig(core);
+        }
+    }
+
+    private String run(SolrCore core, int threadCount, boolean cacheFilters)
+            throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicInteger reloads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(threadCount + 1);
+        long[] requests = new long[threadCount];
+        long[][] latencies = new long[threadCount][LATENCY_SAMPLES];
+
+        Thread reloader = new Thread(() -> {
+            started.countDown();
+            try {
+                while (running.get()) {
+                    QueryAliasing.reloadAliasConfig(core, reloads.incrementAndGet() % 2 == 0 ? configA : configB);
+                    Thread.sleep(RELOAD_INTERVAL_MILLIS);
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }, "aliasReloader");
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int thread = t;
+            workers.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                started.countDown();
+                try {
+                    started.await();
+                    while (running.get()) {
+                        SolrQueryRequest req = req(
+                                "q", "text:value" + random.nextInt(DISTINCT_VALUES) + " AND collection:a"
+                                        + random.nextInt(ALIASES),
+                                "fq", "collection:a" + random.nextInt(ALIASES),
+                                "fq", "collection:(a" + random.nextInt(ALIASES / 2) + " OR a"
+                                        + (ALIASES / 2 + random.nextInt(ALIASES / 2)) + ")",
+                                QueryAliasing.ALIAS_CACHE, String.valueOf(cacheFilters));
+                        long start = System.nanoTime();
+                        QueryAliasing.modifyRequest(req);
+                        long latency = System.nanoTime() - start;
+                        String versions;
+                        try {
+                            versions = cacheFilters ? parsedVersions(req) : versions(req.getParams());
+                        } finally {
+                            req.close();
+                        }
+                        if (versions.length() > 1) {
+                            throw new AssertionError("Request expanded from both configs: " + req.getParamString());
+                        }
+                        long n = requests[thread]++;
+                        // reservoir sampling, so the kept latencies represent the whole run
+                        if (n < LATENCY_SAMPLES) {
+                            latencies[thread][(int) n] = latency;
+                        } else {
+                            long slot = random.nextLong(n + 1);
+                            if (slot < LATENCY_SAMPLES) {
+                                latencies[thread][(int) slot] = latency;
+                            }
+                        }
+                    }
+                } catch (Throwable t1) {
+                    failure.compareAndSet(null, t1);
+                }
+            }, "aliasRequest-" + t));
+        }
+
+        reloader.start();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        started.await();
+        long start = System.nanoTime();
+        Thread.sleep(MILLIS);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        reloader.join();
+
+        if (failure.get() != null) {
+            throw new AssertionError("Failed with " + threadCount + " threads", failure.get());
+        }
+
+        long total = Arrays.stream(requests).sum();
+        assertTrue("No requests completed with " + threadCount + " threads", total > 0);
+        long[] samples = new long[(int) Math.min(Integer.MAX_VALUE, Arrays.stream(requests)
+                .map(n -> Math.min(n, LATENCY_SAMPLES)).sum())];
+        int s = 0;
+        for (int t = 0; t < threadCount; t++) {
+            int kept = (int) Math.min(requests[t], LATENCY_SAMPLES);
+            System.arraycopy(latencies[t], 0, samples, s, kept);
+            s += kept;
+        }
+        Arrays.sort(samples);
+        return String.format(Locale.ROOT,
+                "threads=%d requests/s=%.0f reloads=%d p50=%dus p99=%dus p99.9=%dus max=%dus",
+                threadCount, total * 1e9 / elapsed, reloads.get(), percentile(samples, 0.5) / 1000,
+                percentile(samples, 0.99) / 1000, percentile(samples, 0.999) / 1000,
+                samples[samples.length - 1] / 1000);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,459 @@
+package org.apache.solr.handler.component;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Query;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.ShardParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.AliasConfig;
+import org.apache.solr.core.AliasDictionary;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.index.LogDocMergePolicyFactory;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.AliasFilterCache;
+import org.apache.solr.search.AliasFilterQuery;
+import org.apache.solr.search.AliasQParserPlugin;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+/**
+ * Runs requests with alias.cache=true against the theme aliases of the test config, checking the results and
+ * that the cached alias filters are kept across commits and dropped when their segments are merged away.
+ */
+public class AliasingFilterCacheTest
+        extends SolrTestCaseJ4 {
+
+    private static final String FIELD = "theme";
+
+    @BeforeClass
+    public static void beforeTests()
+            throws Exception {
+        // segments are only merged when the index is optimized, so each commit adds segments to the index
+        System.setProperty("solr.tests.useMergePolicy", "false");
+        System.setProperty("solr.tests.useMergePolicyFactory", "true");
+        System.setProperty("solr.tests.mergePolicyFactory", LogDocMergePolicyFactory.class.getName());
+        initCore("solrconfig.xml", "schema.xml");
+    }
+
+    @AfterClass
+    public static void afterTests() {
+        System.clearProperty("solr.tests.useMergePolicy");
+        System.clearProperty("solr.tests.useMergePolicyFactory");
+        System.clearProperty("solr.tests.mergePolicyFactory");
+    }
+
+    @Before
+    public void emptyIndex() {
+        clearIndex();
+        assertU(commit());
+    }
+
+    /*
+     * In each block of four ids, 0 is even, red and blue, 1 is odd and red, 2 is even and blue,
+     * and 3 is odd, red and discontinued.
+     */
+    private static void addDocs(int from, int to) {
+        for (int id = from; id < to; id++) {
+            String subject = id % 4 == 0 ? "red blue" : id % 2 == 0 ? "blue" : "red";
+            if (id % 4 == 3) {
+                assertU(adoc("id", String.valueOf(id), "cat", "odd", "cat", "discontinued", "subject", subject));
+            } else {
+                assertU(adoc("id", String.valueOf(id), "cat", id % 2 == 0 ? "even" : "odd", "subject", subject));
+            }
+        }
+    }
+
+    /**
+     * @return a request to the /alias handler with alias.cache=true, for all documents unless q is given
+     */
+    private static SolrQueryRequest aliasReq(String... params) {
+        String[] defaults = {"qt", "/alias", QueryAliasing.ALIAS_CACHE, "true"};
+        if (!Arrays.asList(params).contains("q")) {
+            defaults = new String[]{"qt", "/alias", QueryAliasing.ALIAS_CACHE, "true", "q", "*:*"};
+        }
+        String[] all = Arrays.copyOf(defaults, defaults.length + params.length);
+        System.arraycopy(params, 0, all, defaults.length, params.length);
+        return req(all);
+    }
+
+    /**
+     * @return the cached documents of the alias, parsed without params, for each segment core of the searcher
+     */
+    private static Map<Object, DocIdSet> cachedDocs(String alias) {
+        SolrCore core = h.getCore();
+        AliasFilterCache filterCache = QueryAliasing.getAliasFilterCache(core);
+        String source = QueryAliasing.getAliasConfig(core).getAliases().get(FIELD).get(alias);
+        Map<Object, DocIdSet> cached = new HashMap<>();
+        RefCounted<SolrIndexSearcher> searcher = core.getSearcher();
+        try {
+            for (LeafReaderContext context : searcher.get().getIndexReader().leaves()) {
+                DocIdSet docs = filterCache.get(context, AliasFilterQuery.key(FIELD, alias, null), source);
+                assertNotNull("Alias " + alias + " not cached for segment " + context.ord, docs);
+                cached.put(context.reader().getCoreCacheKey(), docs);
+            }
+        } finally {
+            searcher.decref();
+        }
+        return cached;
+    }
+
+    private static int segmentCount() {
+        RefCounted<SolrIndexSearcher> searcher = h.getCore().getSearcher();
+        try {
+            return searcher.get().getIndexReader().leaves().size();
+        } finally {
+            searcher.decref();
+        }
+    }
+
+    /**
+     * @return the number of documents in the cached sets of the alias, or -1 if they are not cached for every segment
+     */
+    private static long cachedDocCount(String key, String source) {
+        RefCounted<SolrIndexSearcher> searcher = h.getCore().getSearcher();
+        try {
+            List<LeafReaderContext> leaves = searcher.get().getIndexReader().leaves();
+            return QueryAliasing.getAliasFilterCache(h.getCore()).docCount(leaves, key, source);
+        } finally {
+            searcher.decref();
+        }
+    }
+
+    private static int filterCacheSegments() {
+        return (Integer) QueryAliasing.getStatistics(h.getCore()).get("filterCacheSegments");
+    }
+
+    @Test
+    public void testCommitAndMerge() {
+        addDocs(0, 4);
+        assertU(commit());
+        assertQ(aliasReq("fq", FIELD + ":even"), "//result[@numFound='2']");
+        Map<Object, DocIdSet> cached = cachedDocs("even");
+        assertEquals(segmentCount(), cached.size());
+
+        addDocs(4, 8);
+        assertU(commit());
+        assertQ(aliasReq("fq", FIELD + ":even"), "//result[@numFound='4']");
+        Map<Object, DocIdSet> recached = cachedDocs("even");
+        assertTrue("No segments added by the commit", recached.size() > cached.size());
+        for (Map.Entry<Object, DocIdSet> segment : cached.entrySet()) {
+            // the same set, rather than an equal one computed again
+            assertSame("Segment computed again after a commit", segment.getValue(), recached.get(segment.getKey()));
+        }
+        assertEquals(segmentCount(), filterCacheSegments());
+
+        assertU(optimize());
+        assertEquals(1, segmentCount());
+        assertQ(aliasReq("fq", FIELD + ":even"), "//result[@numFound='4']");
+        Map<Object, DocIdSet> merged = cachedDocs("even");
+        for (Object coreKey : merged.keySet()) {
+            assertFalse("Segments not merged", recached.containsKey(coreKey));
+        }
+        // the entries of the merged segments were dropped
+        assertEquals(1, filterCacheSegments());
+    }
+
+    @Test
+    public void testParseParams() {
+        addDocs(0, 8);
+        assertU(commit());
+        // each q.op has its own cached sets, whichever is parsed first
+        assertQ(aliasReq("fq", FIELD + ":colours", "q.op", "AND"), "//result[@numFound='2']");
+        assertQ(aliasReq("fq", FIELD + ":colours", "q.op", "OR"), "//result[@numFound='8']");
+        assertQ(aliasReq("fq", FIELD + ":colours", "q.op", "AND"), "//result[@numFound='2']");
+        assertQ(aliasReq("fq", FIELD + ":colours"), "//result[@numFound='8']");
+        assertQ(aliasReq("q", FIELD + ":colours", "q.op", "AND"), "//result[@numFound='2']");
+    }
+
+    /**
+     * @return the value of the aliasing gauge of the /alias handler
+     */
+    private static Object gauge(String name) {
+        SolrCore core = h.getCore();
+        String registry = core.getCoreMetricManager().getRegistryName();
+        Map<String, Metric> metrics = h.getCoreContainer().getMetricManager().registry(registry).getMetrics();
+        for (Map.Entry<String, Metric> metric : metrics.entrySet()) {
+            if (metric.getKey().endsWith("/alias.aliasing." + name)) {
+                return ((Gauge<?>) metric.getValue()).getValue();
+            }
+        }
+        fail("No aliasing gauge " + name + " in " + metrics.keySet());
+        return null;
+    }
+
+    @Test
+    public void testStatisticsAndMetrics()
+            throws Exception {
+        // a reloaded core has no aliasing state until it is used, which reporting it does not create
+        h.reload();
+        for (int i = 0; i < 2; i++) {
+            NamedList<?> stats = QueryAliasing.getStatistics(h.getCore());
+            assertEquals(0, stats.get("filterCacheSegments"));
+            assertEquals(0L, ((NamedList<?>) stats.get("ramBytesUsed")).get("filterCache"));
+            assertEquals(0L, gauge("filterCacheRamBytesUsed"));
+            assertEquals(0L, gauge("filterCacheSegments"));
+        }
+
+        addDocs(0, 8);
+        assertU(commit());
+        assertQ(aliasReq("fq", FIELD + ":even"), "//result[@numFound='4']");
+        SolrCore core = h.getCore();
+        long filterCache = QueryAliasing.getAliasFilterCache(core).ramBytesUsed();
+        assertTrue(filterCache > 0);
+        assertEquals(filterCache, gauge("filterCacheRamBytesUsed"));
+        assertEquals(QueryAliasing.getAliasConfig(core).ramBytesUsed(), gauge("configRamBytesUsed"));
+        assertEquals((long) segmentCount(), gauge("filterCacheSegments"));
+        assertEquals(filterCache, ((NamedList<?>) QueryAliasing.getStatistics(core).get("ramBytesUsed"))
+                .get("filterCache"));
+    }
+
+    @Test
+    public void testRamBudget()
+            throws Exception {
+        addDocs(0, 8);
+        assertU(commit());
+        assertQ(aliasReq("fq", FIELD + ":even"), "//result[@numFound='4']");
+        assertQ(aliasReq("fq", FIELD + ":odd"), "//result[@numFound='4']");
+
+        // the caches are evicted in the background once they are over the budget
+        long used = QueryAliasing.cacheRamBytesUsed();
+        QueryAliasing.checkRamBudget(used);
+        assertEquals(used, QueryAliasing.cacheRamBytesUsed());
+        QueryAliasing.checkRamBudget(used - 1);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (QueryAliasing.cacheRamBytesUsed() >= used && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(QueryAliasing.cacheRamBytesUsed() < used);
+        assertQ(aliasReq("fq", FIELD + ":even"), "//result[@numFound='4']");
+    }
+
+    @Test
+    public void testPatternClauseLimit() {
+        addDocs(0, 8);
+        assertU(commit());
+        int maxClauseCount = BooleanQuery.getMaxClauseCount();
+        BooleanQuery.setMaxClauseCount(1);
+        try {
+            String msg = "\"" + FIELD + ":*_stock\" matches 2 collections";
+            for (String cache : new String[]{"true", "false"}) {
+                for (String fq : new String[]{FIELD + ":*_stock", FIELD + ":(even OR *_stock)"}) {
+                    assertQEx("pattern over the clause limit", msg,
+                            req("qt", "/alias", QueryAliasing.ALIAS_CACHE, cache, "q", "*:*", "fq", fq),
+                            SolrException.ErrorCode.BAD_REQUEST);
+                }
+            }
+        } finally {
+            BooleanQuery.setMaxClauseCount(maxClauseCount);
+        }
+        assertQ(aliasReq("fq", FIELD + ":*_stock"), "//result[@numFound='6']");
+    }
+
+    /**
+     * @return the ids, in order, of the documents matching the request with alias.cache set as given
+     */
+    private static List<String> ids(boolean cache, String... params)
+            throws Exception {
+        String[] all = Arrays.copyOf(params, params.length + 10);
+        System.arraycopy(new String[]{"qt", "/alias", QueryAliasing.ALIAS_CACHE, String.valueOf(cache),
+                "fl", "id", "sort", "id asc", "rows", "100"}, 0, all, params.length, 10);
+        String response = h.query(req(all));
+        List<String> ids = new ArrayList<>();
+        Matcher m = Pattern.compile("<int name=\"id\">(\\d+)</int>").matcher(response);
+        while (m.find()) {
+            ids.add(m.group(1));
+        }
+        return ids;
+    }
+
+    @Test
+    public void testExpressionsMatchWithoutCache()
+            throws Exception {
+        addDocs(0, 8);
+        assertU(commit());
+        addDocs(8, 16);
+        // deleted documents are in the cached sets, so must not be matched by a negation
+        assertU(delI("4"));
+        assertU(delI("9"));
+        assertU(commit());
+        String[] expressions = {"(even OR odd)", "(even AND red_stock)", "(even -red_stock)", "(NOT even)",
+                "(-even -blue_stock)", "(colours AND NOT (odd OR red_stock))", "(*_stock -even)",
+                "(even && !red_stock)", "(!odd || blue_stock)", "(NOT even AND NOT red_stock)",
+                "((even odd) AND -blue_stock)", "(red_stock blue_stock -(odd AND NOT red_stock))"};
+        for (String expression : expressions) {
+            String value = FIELD + ":" + expression;
+            List<String> expected = ids(false, "q", "*:*", "fq", value);
+            assertFalse(expression, expected.isEmpty());
+            assertEquals(expression, expected, ids(true, "q", "*:*", "fq", value));
+            assertEquals(expression, expected, ids(true, "q", value));
+            assertEquals(expression, expected, ids(false, "q", value));
+            // the default operator does not change the expression, or the aliases it combines
+            assertEquals(expression, ids(false, "q", "*:*", "fq", value, "q.op", "AND"),
+                    ids(true, "q", "*:*", "fq", value, "q.op", "AND"));
+            // nor does combining it with other clauses
+            assertEquals(expression, ids(false, "q", "*:*", "fq", value + " AND subject:red"),
+                    ids(true, "q", "*:*", "fq", value + " AND subject:red"));
+        }
+    }
+
+    @Test
+    public void testNegatedSharedClause()
+            throws Exception {
+        addDocs(0, 8);
+        assertU(commit());
+        AliasDictionary dictionary = QueryAliasing.getAliasConfig(h.getCore()).getAliases().get(FIELD);
+        assertEquals(1, dictionary.sharedCount());
+        assertEquals("(cat:discontinued)", dictionary.getShared(0));
+
+        // red_stock is (subject:red) AND NOT(cat:discontinued), with the negated clause referenced as shared
+        SolrQueryRequest req = aliasReq();
+        try {
+            Query query = QParser.getParser("{!alias f=" + FIELD + " v=red_stock}", QParserPlugin.DEFAULT_QTYPE, req)
+                    .getQuery();
+            BooleanQuery parsed = (BooleanQuery) ((AliasFilterQuery) query).getQuery();
+            assertEquals(2, parsed.clauses().size());
+            BooleanClause negated = parsed.clauses().get(1);
+            assertEquals(BooleanClause.Occur.MUST_NOT, negated.getOccur());
+            assertEquals(AliasFilterQuery.key(FIELD, AliasQParserPlugin.SHARED_PREFIX + 0, null),
+                    ((AliasFilterQuery) negated.getQuery()).getKey());
+        } finally {
+            req.close();
+        }
+
+        assertQ(aliasReq("fq", FIELD + ":red_stock"), "//result[@numFound='4']");
+        assertQ(aliasReq("fq", FIELD + ":blue_stock"), "//result[@numFound='4']");
+        assertQ(aliasReq("q", FIELD + ":red_stock"), "//result[@numFound='4']");
+        String sharedKey = AliasFilterQuery.key(FIELD, AliasQParserPlugin.SHARED_PREFIX + 0, null);
+        assertEquals(2, cachedDocCount(sharedKey, dictionary.getShared(0)));
+    }
+
+    /**
+     * @return the fq of the request once expanded
+     */
+    private static String expandedFilter(SolrQueryRequest req) {
+        try {
+            QueryAliasing.modifyRequest(req);
+            return req.getParams().get("fq");
+        } finally {
+            req.close();
+        }
+    }
+
+    private static long strategyCount(String strategy) {
+        NamedList<?> strategies = (NamedList<?>) QueryAliasing.getStatistics(h.getCore()).get("filterStrategies");
+        return (Long) strategies.get(strategy);
+    }
+
+    @Test
+    public void testHints() {
+        addDocs(0, 8);
+        assertU(commit());
+        // measures the alias, if the filterCache autowarming has not already done so
+        assertQ(aliasReq("fq", FIELD + ":even"), "//result[@numFound='4']");
+        long huge = strategyCount("huge");
+        long rare = strategyCount("rare");
+        long cached = strategyCount("cached");
+
+        // half the index, so executed as a post filter of the main query
+        assertTrue(expandedFilter(aliasReq("fq", FIELD + ":even")).contains("cache=false cost=200"));
+        assertEquals(huge + 1, strategyCount("huge"));
+        assertQ(aliasReq("fq", FIELD + ":even"), "//result[@numFound='4']");
+        assertQ(aliasReq("q", "subject:red", "fq", FIELD + ":even"), "//result[@numFound='2']");
+        assertQ(aliasReq("q", "subject:red", "fq", FIELD + ":even", "sort", "id desc"),
+                "//result[@numFound='2']", "//result/doc[1]/int[@name='id'][.='4']",
+                "//result/doc[2]/int[@name='id'][.='0']");
+        assertEquals(huge + 4, strategyCount("huge"));
+
+        assertTrue(expandedFilter(aliasReq("fq", FIELD + ":even", AliasFilterHints.HUGE_RATIO, "0.9"))
+                .contains("cache=false cost=1"));
+        assertEquals(rare + 1, strategyCount("rare"));
+        assertTrue(expandedFilter(aliasReq("fq", FIELD + ":even", AliasFilterHints.HUGE_RATIO, "0.9",
+                AliasFilterHints.RARE_COST, "5")).contains("cache=false cost=5"));
+        assertEquals(rare + 2, strategyCount("rare"));
+
+        String expanded = expandedFilter(aliasReq("fq", FIELD + ":even", AliasFilterHints.HUGE_RATIO, "0.9",
+                AliasFilterHints.RARE_DOCS, "3"));
+        assertFalse(expanded, expanded.contains("cache=false"));
+        assertEquals(cached + 1, strategyCount("cached"));
+
+        // not hinted when disabled, or when distributed, as the counts are those of this core
+        long total = strategyCount("unmeasured") + strategyCount("huge") + strategyCount("rare")
+                + strategyCount("cached");
+        expanded = expandedFilter(aliasReq("fq", FIELD + ":even", AliasFilterHints.HINT, "false"));
+        assertFalse(expanded, expanded.contains("cache=false"));
+        expanded = expandedFilter(aliasReq("fq", FIELD + ":even", ShardParams.SHARDS, "localhost:0/solr/collection1"));
+        assertFalse(expanded, expanded.contains("cache=false"));
+        assertEquals(total, strategyCount("unmeasured") + strategyCount("huge") + strategyCount("rare")
+                + strategyCount("cached"));
+        expanded = expandedFilter(aliasReq("fq", FIELD + ":even", ShardParams.SHARDS, "localhost:0/solr/collection1",
+                "distrib", "false"));
+        assertTrue(expanded, expanded.contains("cache=false cost=200"));
+    }
+
+    private static AliasConfig themeConfig(String sharedClause)
+            throws Exception {
+        String xml = "<alias-configs><alias-config><alias-pseudofield>" + FIELD + "</alias-pseudofield><alias-defs>"
+                + "<alias-def><alias>even</alias><query>cat:even</query></alias-def>"
+                + "<alias-def><alias>red</alias><query>(subject:red) AND " + sharedClause + "</query></alias-def>"
+                + "<alias-def><alias>blue</alias><query>(subject:blue) AND " + sharedClause + "</query></alias-def>"
+                + "</alias-defs></alias-config></alias-configs>";
+        return new AliasConfig(h.getCore().getResourceLoader(), "query_aliases.xml",
+                new InputSource(new StringReader(xml)));
+    }
+
+    @Test
+    public void testReloadInvalidatesSharedClauses()
+            throws Exception {
+        addDocs(0, 8);
+        assertU(commit());
+        SolrCore core = h.getCore();
+        AliasConfig oldConfig = themeConfig("(cat:odd OR cat:discontinued)");
+        QueryAliasing.reloadAliasConfig(core, oldConfig);
+        try {
+            AliasDictionary dictionary = oldConfig.getAliases().get(FIELD);
+            assertEquals(1, dictionary.sharedCount());
+            assertQ(aliasReq("fq", FIELD + ":red"), "//result[@numFound='4']");
+            assertQ(aliasReq("fq", FIELD + ":blue"), "//result[@numFound='0']");
+            assertQ(aliasReq("fq", FIELD + ":even"), "//result[@numFound='4']");
+            String sharedKey = AliasFilterQuery.key(FIELD, AliasQParserPlugin.SHARED_PREFIX + 0, null);
+            assertEquals(4, cachedDocCount(sharedKey, dictionary.getShared(0)));
+            String redKey = AliasFilterQuery.key(FIELD, "red", null);
+            assertEquals(4, cachedDocCount(redKey, dictionary.get("red")));
+
+            // the shared clause changes, so the aliases using it change, the other aliases are unchanged
+            QueryAliasing.reloadAliasConfig(core, themeConfig("(cat:even OR cat:nothing_here)"));
+            assertEquals(-1, cachedDocCount(sharedKey, dictionary.getShared(0)));
+            assertEquals(-1, cachedDocCount(redKey, dictionary.get("red")));
+            assertEquals(4, cachedDocCount(AliasFilterQuery.key(FIELD, "even", null), dictionary.get("even")));
+
+            assertQ(aliasReq("fq", FIELD + ":red"), "//result[@numFound='2']");
+            assertQ(aliasReq("fq", FIELD + ":blue"), "//result[@numFound='4']");
+            assertQ(aliasReq("fq", FIELD + ":even"), "//result[@numFound='4']");
+        } finally {
+            QueryAliasing.reloadAliasConfig(core);
+        }
+    }
+}
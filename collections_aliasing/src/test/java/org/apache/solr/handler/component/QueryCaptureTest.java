@@ -0,0 +1,123 @@
+package org.apache.solr.handler.component;
+
+import java.util.List;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+public class QueryCaptureTest
+        extends LuceneTestCase {
+
+    private static ModifiableSolrParams params(String q) {
+        return new ModifiableSolrParams().set("q", q);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<NamedList<Object>> samples(QueryCapture capture) {
+        return (List<NamedList<Object>>) capture.dump().get("samples");
+    }
+
+    @Test
+    public void testCapacity() {
+        assertEquals(1, new QueryCapture(0).getCapacity());
+        assertEquals(1, new QueryCapture(1).getCapacity());
+        assertEquals(2, new QueryCapture(2).getCapacity());
+        assertEquals(4, new QueryCapture(3).getCapacity());
+        assertEquals(4, new QueryCapture(4).getCapacity());
+        assertEquals(8, new QueryCapture(5).getCapacity());
+    }
+
+    @Test
+    public void testWrapAround() {
+        QueryCapture capture = new QueryCapture(4);
+        for (int i = 0; i < 10; i++) {
+            capture.record(params("q" + i), params("expanded" + i), i);
+        }
+        NamedList<Object> dump = capture.dump();
+        assertEquals(10L, dump.get("captured"));
+        assertEquals(4, dump.get("capacity"));
+
+        // only the last samples are kept, oldest first
+        List<NamedList<Object>> samples = samples(capture);
+        assertEquals(4, samples.size());
+        for (int i = 0; i < 4; i++) {
+            NamedList<Object> sample = samples.get(i);
+            assertEquals(6L + i, sample.get("seq"));
+            assertEquals(6L + i, sample.get("expansionNanos"));
+            assertEquals("?q=q" + (6 + i), sample.get("params"));
+            assertEquals("?q=expanded" + (6 + i), sample.get("expandedParams"));
+        }
+    }
+
+    @Test
+    public void testRate() {
+        QueryCapture capture = new QueryCapture(4);
+        assertEquals(0, capture.getRate(), 0);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(capture.sample());
+        }
+        capture.setRate(1);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(capture.sample());
+        }
+        capture.setRate(2);
+        assertEquals(1, capture.getRate(), 0);
+        capture.setRate(-1);
+        assertEquals(0, capture.getRate(), 0);
+        assertFalse(capture.sample());
+    }
+
+    @Test
+    public void testRateZeroRecordsNothing() {
+        QueryCapture capture = new QueryCapture(4);
+        for (int i = 0; i < 10; i++) {
+            if (capture.sample()) {
+                capture.record(params("q" + i), params("q" + i), i);
+            }
+        }
+        NamedList<Object> dump = capture.dump();
+        assertEquals(0L, dump.get("captured"));
+        assertTrue(samples(capture).isEmpty());
+        assertEquals(new QueryCapture(4).ramBytesUsed(), capture.ramBytesUsed());
+    }
+
+    @Test
+    public void testClear() {
+        QueryCapture capture = new QueryCapture(4);
+        long empty = capture.ramBytesUsed();
+        for (int i = 0; i < 3; i++) {
+            capture.record(params("q" + i), params("expanded" + i), i);
+        }
+        assertTrue(capture.ramBytesUsed() > empty);
+
+        capture.clear();
+        assertTrue(samples(capture).isEmpty());
+        assertEquals(empty, capture.ramBytesUsed());
+        assertEquals(3L, capture.dump().get("captured"));
+
+        // the sequence carries on after a clear
+        capture.record(params("q3"), params("expanded3"), 3);
+        List<NamedList<Object>> samples = samples(capture);
+        assertEquals(1, samples.size());
+        assertEquals(3L, samples.get(0).get("seq"));
+    }
+
+    @Test
+    public void testSnapshot() {
+        QueryCapture capture = new QueryCapture(4);
+        ModifiableSolrParams params = params("theme:even");
+        ModifiableSolrParams expanded = params("cat:even");
+        capture.record(params, expanded, 0);
+        capture.record(params, params, 0);
+        params.set("q", "changed");
+        expanded.add("fq", "added");
+
+        List<NamedList<Object>> samples = samples(capture);
+        assertEquals("?q=theme%3Aeven", samples.get(0).get("params"));
+        assertEquals("?q=cat%3Aeven", samples.get(0).get("expandedParams"));
+        assertEquals("?q=theme%3Aeven", samples.get(1).get("params"));
+        assertEquals("?q=theme%3Aeven", samples.get(1).get("expandedParams"));
+    }
+}
@@ -0,0 +1,83 @@
+package org.apache.solr.search;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+public class AliasExpressionTest
+        extends LuceneTestCase {
+
+    private static final int MAX_DOC = 8;
+
+    private static FixedBitSet bits(int... docs) {
+        FixedBitSet bits = new FixedBitSet(MAX_DOC);
+        for (int doc : docs) {
+            bits.set(doc);
+        }
+        return bits;
+    }
+
+    private static FixedBitSet evaluate(String expression)
+            throws Exception {
+        Map<String, FixedBitSet> docs = new HashMap<>();
+        docs.put("a", bits(0, 1, 2));
+        docs.put("b", bits(2, 3));
+        docs.put("c", bits(1, 3, 4));
+        return AliasExpression.parse(expression).evaluate(alias -> docs.get(alias).clone(), MAX_DOC);
+    }
+
+    @Test
+    public void testParse()
+            throws Exception {
+        assertEquals("(a OR b)", AliasExpression.parse("a OR b").toString());
+        assertEquals("(a OR b -c)", AliasExpression.parse("a b -c").toString());
+        assertEquals("(music_* AND NOT jazz)", AliasExpression.parse("music_* AND NOT jazz").toString());
+        assertEquals("(a AND (b OR c))", AliasExpression.parse("a && (b || c)").toString());
+        assertEquals("NOT a", AliasExpression.parse("!a").toString());
+        assertEquals("a", AliasExpression.parse("(a)").toString());
+        assertEquals(Arrays.asList("jazz", "music_*"),
+                Arrays.asList(AliasExpression.parse("music_* AND NOT jazz").getAliases().toArray()));
+        assertFalse(AliasExpression.parse("a OR (b AND c)").hasNegation());
+        assertTrue(AliasExpression.parse("a OR (b -c)").hasNegation());
+    }
+
+    @Test
+    public void testSyntaxErrors() {
+        for (String expression : new String[]{"a OR", "(a", "a)", "a:b", "AND a", ""}) {
+            expectThrows(SyntaxError.class, () -> AliasExpression.parse(expression));
+        }
+    }
+
+    @Test
+    public void testIsAlias() {
+        assertTrue(AliasExpression.isAlias("music_*"));
+        assertFalse(AliasExpression.isAlias("music OR art"));
+        assertFalse(AliasExpression.isAlias(""));
+    }
+
+    @Test
+    public void testEvaluate()
+            throws Exception {
+        assertEquals(bits(0, 1, 2, 3), evaluate("a OR b"));
+        assertEquals(bits(0, 2), evaluate("a b -c"));
+        assertEquals(bits(0, 2), evaluate("a AND NOT c"));
+        assertEquals(bits(0, 2, 5, 6, 7), evaluate("NOT c"));
+        assertEquals(bits(1, 3), evaluate("(a OR b) AND c"));
+        assertEquals(bits(0), evaluate("a && !(b || c)"));
+    }
+
+    @Test
+    public void testToQueryString()
+            throws Exception {
+        AliasExpression.AliasQuery queries = alias -> "x:" + alias;
+        assertEquals("((x:a) OR (x:b) -(x:c))", AliasExpression.parse("a b -c").toQueryString(queries));
+        assertEquals("((x:a) AND NOT (x:c))", AliasExpression.parse("a AND NOT c").toQueryString(queries));
+        assertEquals("(*:* NOT (x:a))", AliasExpression.parse("NOT a").toQueryString(queries));
+        assertEquals("(*:* AND NOT (x:a) AND NOT (x:b))",
+                AliasExpression.parse("NOT a AND NOT b").toQueryString(queries));
+    }
+}
@@ -0,0 +1,208 @@
+package org.apache.solr.search;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.SegmentInfo;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BitDocIdSet;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.RamUsageTester;
+import org.apache.lucene.util.SparseFixedBitSet;
+import org.junit.Test;
+
+public class AliasFilterCacheTest
+        extends LuceneTestCase {
+
+    private static final String HASH = "0123456789abcdef";
+
+    private static DocIdSet docs(int maxDoc, int... docs) {
+        FixedBitSet bits = new FixedBitSet(maxDoc);
+        for (int doc : docs) {
+            bits.set(doc);
+        }
+        return new BitDocIdSet(bits);
+    }
+
+    private static void addDocs(IndexWriter writer, int count)
+            throws IOException {
+        for (int i = 0; i < count; i++) {
+            Document doc = new Document();
+            doc.add(new StringField("id", String.valueOf(i), Field.Store.NO));
+            writer.addDocument(doc);
+        }
+    }
+
+    /**
+     * @return a writer adding a segment for each reader opened, without merging them
+     */
+    private static IndexWriter newWriter(Directory dir)
+            throws IOException {
+        return new IndexWriter(dir, new IndexWriterConfig(new MockAnalyzer(random()))
+                .setMergePolicy(NoMergePolicy.INSTANCE));
+    }
+
+    @Test
+    public void testPersistSearcherSegments()
+            throws Exception {
+        Path path = createTempDir();
+        try (Directory dir = newDirectory(); IndexWriter writer = newWriter(dir)) {
+            addDocs(writer, 2);
+            DirectoryReader registered = DirectoryReader.open(writer);
+            addDocs(writer, 2);
+            DirectoryReader warming = DirectoryReader.openIfChanged(registered);
+            AliasFilterStore store = new AliasFilterStore(null, path, () -> HASH);
+            AliasFilterCache cache = new AliasFilterCache(store);
+            try {
+                assertEquals(2, warming.leaves().size());
+                for (LeafReaderContext context : warming.leaves()) {
+                    cache.put(context, "collection:art", "what:art", docs(2, 1));
+                }
+                SegmentInfo first = AliasFilterStore.segmentInfo(warming.leaves().get(0).reader());
+                SegmentInfo second = AliasFilterStore.segmentInfo(warming.leaves().get(1).reader());
+
+                // the new segment is neither written nor deleted until its searcher is registered
+                cache.persist(registered.leaves());
+                store.deleteStale(registered.leaves());
+                assertEquals(1, store.read(first, 2).size());
+                assertTrue(store.read(second, 2).isEmpty());
+
+                cache.persist(warming.leaves());
+                store.deleteStale(warming.leaves());
+                assertEquals(1, store.read(first, 2).size());
+                assertEquals(1, store.read(second, 2).size());
+
+                // the files of segments no longer searched are deleted
+                store.deleteStale(warming.leaves().subList(1, 2));
+                assertTrue(store.read(first, 2).isEmpty());
+                assertEquals(1, store.read(second, 2).size());
+            } finally {
+                cache.close();
+                IOUtils.close(warming, registered);
+            }
+        }
+    }
+
+    @Test
+    public void testPersistKeepsEvictedEntries()
+            throws Exception {
+        Path path = createTempDir();
+        try (Directory dir = newDirectory(); IndexWriter writer = newWriter(dir)) {
+            addDocs(writer, 4);
+            DirectoryReader reader = DirectoryReader.open(writer);
+            AliasFilterStore store = new AliasFilterStore(null, path, () -> HASH);
+            AliasFilterCache cache = new AliasFilterCache(store);
+            try {
+                LeafReaderContext context = reader.leaves().get(0);
+                SegmentInfo info = AliasFilterStore.segmentInfo(context.reader());
+                cache.put(context, "collection:art", "what:art", docs(4, 0, 1));
+                cache.put(context, "collection:maps", "what:map", docs(4, 2));
+                cache.persist(reader.leaves());
+                assertEquals(2, store.read(info, 4).size());
+
+                assertEquals(1, cache.evict(cache.ramBytesUsed() - 1));
+                int inMemory = (cache.get(context, "collection:art", "what:art") == null ? 0 : 1)
+                        + (cache.get(context, "collection:maps", "what:map") == null ? 0 : 1);
+                assertEquals(1, inMemory);
+
+                // the segment is written again with the evicted entry read back from its file
+                cache.put(context, "collection:music", "what:music", docs(4, 3));
+                cache.persist(reader.leaves());
+                Map<String, AliasFilterCache.Entry> stored = store.read(info, 4);
+                assertEquals(3, stored.size());
+                assertEquals(2, stored.get("collection:art").count);
+                assertEquals(1, stored.get("collection:maps").count);
+                assertEquals(1, stored.get("collection:music").count);
+
+                // an invalidated entry is not read back
+                assertEquals(1, cache.invalidate("collection:music"));
+                cache.persist(reader.leaves());
+                stored = store.read(info, 4);
+                assertEquals(1, stored.size());
+                assertNull(stored.get("collection:music"));
+            } finally {
+                cache.close();
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void testRamBytesUsed()
+            throws Exception {
+        try (Directory dir = newDirectory(); IndexWriter writer = newWriter(dir)) {
+            List<DirectoryReader> readers = new ArrayList<>();
+            AliasFilterCache cache = new AliasFilterCache();
+            Set<Object> coreKeys = Collections.newSetFromMap(new IdentityHashMap<>());
+            try {
+                DirectoryReader reader = null;
+                for (int i = 0; i < 3; i++) {
+                    addDocs(writer, 4096);
+                    reader = reader == null ? DirectoryReader.open(writer) : DirectoryReader.openIfChanged(reader);
+                    readers.add(reader);
+                }
+                // each alias is put in every segment with the same key and source, as by a query
+                for (int alias = 0; alias < 20; alias++) {
+                    String key = "collection:alias" + alias;
+                    String source = "what:alias" + alias;
+                    for (LeafReaderContext context : reader.leaves()) {
+                        int maxDoc = context.reader().maxDoc();
+                        DocIdSet docs;
+                        if (alias % 2 == 0) {
+                            docs = docs(maxDoc, random().nextInt(maxDoc), random().nextInt(maxDoc));
+                        } else {
+                            SparseFixedBitSet sparse = new SparseFixedBitSet(maxDoc);
+                            for (int doc = 0; doc < maxDoc; doc += 1 + random().nextInt(200)) {
+                                sparse.set(doc);
+                            }
+                            docs = new BitDocIdSet(sparse);
+                        }
+                        cache.put(context, key, source, docs);
+                        coreKeys.add(context.reader().getCoreCacheKey());
+                    }
+                }
+                assertEquals(3, cache.size());
+
+                // the segment info and core key belong to the reader
+                RamUsageTester.Accumulator accumulator = new RamUsageTester.Accumulator() {
+                    @Override
+                    public long accumulateObject(Object o, long shallowSize,
+                                                 Map<java.lang.reflect.Field, Object> fieldValues,
+                                                 Collection<Object> queue) {
+                        if (o instanceof SegmentInfo || coreKeys.contains(o)) {
+                            return 0;
+                        }
+                        return super.accumulateObject(o, shallowSize, fieldValues, queue);
+                    }
+                };
+                long actual = RamUsageTester.sizeOf(cache, accumulator);
+                assertEquals(actual, cache.ramBytesUsed(), actual * 0.2);
+
+                assertTrue(cache.evict(cache.ramBytesUsed() / 2) > 0);
+                actual = RamUsageTester.sizeOf(cache, accumulator);
+                assertEquals(actual, cache.ramBytesUsed(), actual * 0.2);
+            } finally {
+                IOUtils.close(readers);
+            }
+        }
+    }
+}
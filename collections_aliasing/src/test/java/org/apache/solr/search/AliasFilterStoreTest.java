@@ -0,0 +1,161 @@
+package org.apache.solr.search;
+
+import java.io.Closeable;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.index.SegmentInfo;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BitDocIdSet;
+import org.apache.lucene.util.BitSet;
+import org.apache.lucene.util.BitSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.SparseFixedBitSet;
+import org.apache.lucene.util.StringHelper;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+public class AliasFilterStoreTest
+        extends LuceneTestCase {
+
+    private static final int MAX_DOC = 1000;
+
+    private static SegmentInfo segmentInfo(Directory dir) {
+        return new SegmentInfo(dir, Version.LATEST, "_0", MAX_DOC, false, Codec.getDefault(),
+                Collections.emptyMap(), StringHelper.randomId(), new HashMap<>(), null);
+    }
+
+    private static Map<String, AliasFilterCache.Entry> entries() {
+        FixedBitSet dense = new FixedBitSet(MAX_DOC);
+        dense.set(0, 600);
+        SparseFixedBitSet sparse = new SparseFixedBitSet(MAX_DOC);
+        sparse.set(3);
+        sparse.set(999);
+        Map<String, AliasFilterCache.Entry> entries = new HashMap<>();
+        entries.put("collection:art", new AliasFilterCache.Entry("what:painting", new BitDocIdSet(dense)));
+        entries.put("collection:maps", new AliasFilterCache.Entry("what:map", new BitDocIdSet(sparse)));
+        entries.put("collection:#0", new AliasFilterCache.Entry("TYPE:SOUND", DocIdSet.EMPTY));
+        return entries;
+    }
+
+    private static BitSet bits(AliasFilterCache.Entry entry) {
+        return ((BitDocIdSet) entry.docs).bits();
+    }
+
+    @Test
+    public void testRoundTrip()
+            throws Exception {
+        Path path = createTempDir();
+        AtomicReference<String> hash = new AtomicReference<>("0123456789abcdef");
+        AliasFilterStore store = new AliasFilterStore(null, path, hash::get);
+        try (Directory dir = newDirectory()) {
+            SegmentInfo info = segmentInfo(dir);
+            store.write(info, MAX_DOC, entries(), hash.get());
+
+            Map<String, AliasFilterCache.Entry> read = store.read(info, MAX_DOC);
+            assertEquals(3, read.size());
+            assertEquals(600, read.get("collection:art").count);
+            assertEquals(600, bits(read.get("collection:art")).cardinality());
+            assertEquals("what:painting".hashCode(), read.get("collection:art").sourceHash);
+            assertEquals(2, read.get("collection:maps").count);
+            assertTrue(bits(read.get("collection:maps")).get(999));
+            assertEquals(0, read.get("collection:#0").count);
+
+            // a different segment with the same name, or a different config, does not read the file
+            assertTrue(store.read(segmentInfo(dir), MAX_DOC).isEmpty());
+            hash.set("fedcba9876543210");
+            assertTrue(store.read(info, MAX_DOC).isEmpty());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testMap()
+            throws Exception {
+        Path path = createTempDir();
+        AliasFilterStore store = new AliasFilterStore(null, path, () -> "0123456789abcdef");
+        List<Closeable> inputs = new ArrayList<>();
+        try (Directory dir = newDirectory()) {
+            SegmentInfo info = segmentInfo(dir);
+            FixedBitSet dense = new FixedBitSet(MAX_DOC);
+            for (int doc = 0; doc < MAX_DOC; doc++) {
+                if (doc < 64 || doc == MAX_DOC - 1 || random().nextInt(3) == 0) {
+                    dense.set(doc);
+                }
+            }
+            Map<String, AliasFilterCache.Entry> entries = entries();
+            entries.put("collection:music", new AliasFilterCache.Entry("what:music", new BitDocIdSet(dense)));
+            store.write(info, MAX_DOC, entries, "0123456789abcdef");
+
+            Map<String, AliasFilterCache.Entry> mapped = store.map(info, MAX_DOC, inputs);
+            assertEquals(4, mapped.size());
+            assertEquals(1, inputs.size());
+            AliasFilterCache.Entry music = mapped.get("collection:music");
+            assertTrue(music.docs instanceof AliasFilterStore.MappedDocIdSet);
+            assertEquals(dense.cardinality(), music.count);
+            assertEquals(2, mapped.get("collection:maps").count);
+
+            Bits bits = music.docs.bits();
+            DocIdSetIterator expected = new BitSetIterator(dense, dense.cardinality());
+            DocIdSetIterator actual = music.docs.iterator();
+            for (int doc = 0; doc < MAX_DOC; doc++) {
+                assertEquals(dense.get(doc), bits.get(doc));
+            }
+            for (int doc = expected.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = expected.nextDoc()) {
+                assertEquals(doc, actual.nextDoc());
+            }
+            assertEquals(DocIdSetIterator.NO_MORE_DOCS, actual.nextDoc());
+            int target = random().nextInt(MAX_DOC);
+            assertEquals(dense.nextSetBit(target), music.docs.iterator().advance(target));
+
+            // the mapped filters are written again as they were read
+            store.write(info, MAX_DOC, mapped, "0123456789abcdef");
+            Map<String, AliasFilterCache.Entry> read = store.read(info, MAX_DOC);
+            assertTrue(bits(read.get("collection:music")).equals(dense));
+            assertEquals(600, read.get("collection:art").count);
+        } finally {
+            IOUtils.close(inputs);
+            store.close();
+        }
+    }
+
+    @Test
+    public void testCorruptFile()
+            throws Exception {
+        Path path = createTempDir();
+        AliasFilterStore store = new AliasFilterStore(null, path, () -> "0123456789abcdef");
+        try (Directory dir = newDirectory()) {
+            SegmentInfo info = segmentInfo(dir);
+            store.write(info, MAX_DOC, entries(), "0123456789abcdef");
+
+            Path file;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.alf")) {
+                file = files.iterator().next();
+            }
+            byte[] bytes = Files.readAllBytes(file);
+            bytes[bytes.length / 2] ^= 0x55;
+            Files.write(file, bytes);
+
+            List<Closeable> inputs = new ArrayList<>();
+            assertTrue(store.map(info, MAX_DOC, inputs).isEmpty());
+            assertTrue(inputs.isEmpty());
+            assertFalse(Files.exists(file));
+        } finally {
+            store.close();
+        }
+    }
+}